@@ -0,0 +1,172 @@
+package org.firstinspires.ftc.robotcontroller.internal.testcode;
+
+import com.qualcomm.robotcore.eventloop.opmode.Autonomous;
+import com.qualcomm.robotcore.eventloop.opmode.Disabled;
+import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
+import com.qualcomm.robotcore.exception.RobotCoreException;
+import com.qualcomm.robotcore.util.RobotLog;
+import com.qualcomm.robotcore.util.SerialNumber;
+
+import org.ftccommunity.simulator.SimulatedUsbDevice;
+import org.ftccommunity.simulator.networking.SimulatorProtocol;
+import org.ftccommunity.simulator.networking.TelnetClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures aggregate write throughput to simulated controllers as the number of controllers goes
+ * up. Each controller gets its own writer thread, as each controller does in the SDK, and writes
+ * small register writes as fast as it can for a few seconds. With per-device write locks the total
+ * should grow with the controller count (up to the number of cores) rather than stay flat.
+ * <p>
+ * The rate is the writes that reached the devices, one write lock each. The writer threads count
+ * the writes they make as well, and any difference is reported as lost: a run pushes far more
+ * than a device's 4 KB write queue through it, so a write is only lost if the flush falls behind
+ * for longer than a writer waits for room. A first, unreported run warms up the write and flush
+ * paths; before they are compiled the flush can fall that far behind.
+ * <p>
+ * A local client connects to the simulator server, switches to the binary protocol and throws
+ * everything away, so the benchmark runs without the PC simulator. Results go to telemetry and
+ * the log.
+ */
+@Autonomous(name = "Test Simulated Write Throughput", group = "Tests")
+@Disabled
+public class TestSimulatedWriteThroughput extends LinearOpMode {
+    static final int[] CONTROLLER_COUNTS = {1, 2, 4, 8};
+    static final long MS_PER_RUN = 3000;
+
+    @Override
+    public void runOpMode() throws InterruptedException {
+        TelnetClient server = TelnetClient.instance();
+        if (!server.isRunning()) {
+            new Thread(server, "simulator server").start();
+            Thread.sleep(1000);
+        }
+
+        Socket drain = null;
+        try {
+            drain = startDrain();
+            waitForStart();
+
+            // Unreported run, so the JIT has compiled the write and flush paths before we measure
+            measure(1, new long[2]);
+
+            double singleRate = 0;
+            for (int controllers : CONTROLLER_COUNTS) {
+                if (!opModeIsActive()) break;
+                long[] counts = new long[2];
+                double rate = measure(controllers, counts);
+                if (controllers == 1) singleRate = rate;
+
+                String result = String.format("%.0f writes/s, %.2fx one controller, %d of %d writes lost",
+                        rate, rate / singleRate, counts[0] - counts[1], counts[0]);
+                telemetry.addData(controllers + " controllers", result);
+                updateTelemetry(telemetry);
+                RobotLog.i("[SIM] write throughput with %d controllers: %s", controllers, result);
+            }
+
+            while (opModeIsActive()) {
+                idle();
+            }
+        } catch (IOException e) {
+            telemetry.addData("error", "can't connect to the simulator server: " + e.getMessage());
+            updateTelemetry(telemetry);
+        } finally {
+            if (drain != null) {
+                try {
+                    drain.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Write to the given number of controllers at once for {@link #MS_PER_RUN}. The controllers are
+     * closed afterwards.
+     *
+     * @param counts set to the writes the writer threads made and the writes that reached the
+     *               devices
+     * @return total writes per second that reached the devices
+     */
+    double measure(int controllers, long[] counts) throws InterruptedException {
+        final long deadline = System.nanoTime() + MS_PER_RUN * 1000000L;
+
+        List<SimulatedUsbDevice> devices = new ArrayList<SimulatedUsbDevice>();
+        List<Thread> writers = new ArrayList<Thread>();
+        final long[] made = new long[controllers];
+        for (int i = 0; i < controllers; i++) {
+            final int writerIndex = i;
+            final SimulatedUsbDevice device = SimulatedUsbDevice.valueOf(new SerialNumber("BENCH" + i));
+            devices.add(device);
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // Motor controller style register writes: header, then one data byte, cycling
+                    // through the registers
+                    byte[] data = {0x55, (byte) 0xAA, 0x00, 0x40, 0x01, 0x00};
+                    long count = 0;
+                    try {
+                        while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+                            data[3] = (byte) (0x40 + (count & 0x1F));
+                            data[5] = (byte) count;
+                            device.write(data);
+                            count++;
+                        }
+                    } catch (RobotCoreException e) {
+                        RobotLog.e("[SIM] benchmark write failed: " + e.getMessage());
+                    }
+                    made[writerIndex] = count;
+                }
+            }, "writer " + i);
+            writers.add(writer);
+        }
+
+        long start = System.nanoTime();
+        for (Thread writer : writers) writer.start();
+        for (Thread writer : writers) writer.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long writes = 0;
+        for (int i = 0; i < controllers; i++) {
+            devices.get(i).close();
+            writes += devices.get(i).getWritesOut();
+            counts[0] += made[i];
+        }
+        counts[1] = writes;
+        return writes / seconds;
+    }
+
+    /**
+     * Connect to the simulator server, switch to the binary protocol and read (and drop)
+     * everything it sends.
+     */
+    Socket startDrain() throws IOException {
+        final Socket socket = new Socket("127.0.0.1", TelnetClient.PORT);
+        OutputStream out = socket.getOutputStream();
+        out.write((SimulatorProtocol.SWITCH_TO_BINARY + "\r\n").getBytes("US-ASCII"));
+        out.flush();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[16 * 1024];
+                try {
+                    InputStream in = socket.getInputStream();
+                    while (in.read(buffer) >= 0) {
+                        // discard
+                    }
+                } catch (IOException ignored) {
+                    // closed at the end of the run
+                }
+            }
+        }, "simulator drain");
+        reader.setDaemon(true);
+        reader.start();
+        return socket;
+    }
+}
@@ -7,29 +7,86 @@ import com.qualcomm.robotcore.util.RobotLog;
 import com.qualcomm.robotcore.util.SerialNumber;
 import com.qualcomm.robotcore.util.ThreadPool;
 
+import com.qualcomm.robotcore.hardware.DeviceManager;
+
+import org.ftccommunity.simulator.networking.ModuleEnumeration;
 import org.ftccommunity.simulator.networking.TelnetClient;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 
 public class RobotUsbManagerSimulator implements RobotUsbManager {
     private final TelnetClient client;
-    private static final ExecutorService executorService = ThreadPool.newFixedThreadPool(2);
+    private static final ExecutorService executorService = ThreadPool.newFixedThreadPool(1);
     private ArrayList<SimulatedUsbDevice> devices = new ArrayList<>();
+    private volatile boolean scanFrozen = false;
+
+    // Longest a scan waits for the PC simulator's module list
+    private static final long SCAN_WAIT_MS = 250;
 
     public RobotUsbManagerSimulator() {
         client = TelnetClient.instance();
         if (!client.isRunning()) {
             executorService.submit(client);
-            executorService.submit(new TelnetClient.SimulatorWriteService());
         }
     }
 
+    /**
+     * Asks the PC simulator for its module list and makes a device for each module. The scan waits
+     * at most {@link #SCAN_WAIT_MS} for an answer and otherwise uses the last list it got. If no
+     * list has ever come (the simulator can't be reached, or only answers with XML), the devices
+     * we already know about (those opened by serial number) are kept.
+     */
     @Override
-    public int scanForDevices() throws RobotCoreException {
+    public synchronized int scanForDevices() throws RobotCoreException {
+        if (scanFrozen) return this.devices.size();
+
+        final List<ModuleEnumeration.Entry> modules = ModuleEnumeration.latest(SCAN_WAIT_MS);
+        if (modules != null) {
+            ArrayList<SimulatedUsbDevice> found = new ArrayList<>(modules.size());
+            for (ModuleEnumeration.Entry module : modules) {
+                final SimulatedUsbDevice device = SimulatedUsbDevice.valueOf(new SerialNumber(module.serial));
+                device.setDeviceType(deviceTypeOf(module.type));
+                device.deviceDescription = descriptionOf(module.type);
+                found.add(device);
+            }
+            RobotLog.d("[SIM] found " + found.size() + " simulated modules");
+            this.devices = found;
+        }
         return this.devices.size();
     }
 
+    private static DeviceManager.DeviceType deviceTypeOf(int type) {
+        switch (type) {
+            case ModuleEnumeration.TYPE_LEGACY_MODULE:
+                return DeviceManager.DeviceType.MODERN_ROBOTICS_USB_LEGACY_MODULE;
+            case ModuleEnumeration.TYPE_MOTOR_CONTROLLER:
+                return DeviceManager.DeviceType.MODERN_ROBOTICS_USB_DC_MOTOR_CONTROLLER;
+            case ModuleEnumeration.TYPE_SERVO_CONTROLLER:
+                return DeviceManager.DeviceType.MODERN_ROBOTICS_USB_SERVO_CONTROLLER;
+            case ModuleEnumeration.TYPE_DEVICE_INTERFACE_MODULE:
+                return DeviceManager.DeviceType.MODERN_ROBOTICS_USB_DEVICE_INTERFACE_MODULE;
+            default:
+                return DeviceManager.DeviceType.UNKNOWN_DEVICE;
+        }
+    }
+
+    private static String descriptionOf(int type) {
+        switch (type) {
+            case ModuleEnumeration.TYPE_LEGACY_MODULE:
+                return "Simulated Legacy Module";
+            case ModuleEnumeration.TYPE_MOTOR_CONTROLLER:
+                return "Simulated Motor Controller";
+            case ModuleEnumeration.TYPE_SERVO_CONTROLLER:
+                return "Simulated Servo Controller";
+            case ModuleEnumeration.TYPE_DEVICE_INTERFACE_MODULE:
+                return "Simulated Device Interface Module";
+            default:
+                return "Simulated Device";
+        }
+    }
+
     /**
      * This is hack. What's up is that ModernRoboticsUsbUtil.openUsbDevice internally calls
      * {@link #scanForDevices()}, which totally isn't necessary inside of HardwareDeviceManager.scanForDevices,
@@ -46,7 +103,7 @@ public class RobotUsbManagerSimulator implements RobotUsbManager {
      */
     @Override
     public void freezeScanForDevices() {
-
+        scanFrozen = true;
     }
 
     /**
@@ -56,7 +113,7 @@ public class RobotUsbManagerSimulator implements RobotUsbManager {
      */
     @Override
     public void thawScanForDevices() {
-
+        scanFrozen = false;
     }
 
     public SerialNumber getDeviceSerialNumberByIndex(int index) throws RobotCoreException {
@@ -67,7 +124,7 @@ public class RobotUsbManagerSimulator implements RobotUsbManager {
         return this.devices.get(index).deviceDescription;
     }
 
-    public RobotUsbDevice openBySerialNumber(SerialNumber serialNumber) throws RobotCoreException {
+    public synchronized RobotUsbDevice openBySerialNumber(SerialNumber serialNumber) throws RobotCoreException {
         RobotLog.d("attempting to open simulated device " + serialNumber);
         for (SimulatedUsbDevice device : devices) {
             if (device.serialNumber.equals(serialNumber)) {
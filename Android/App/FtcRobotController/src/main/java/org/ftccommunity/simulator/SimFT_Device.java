@@ -12,15 +12,18 @@ public class SimFT_Device {
     private int readTimeout;
     private boolean open;
     private D2xxManager.FtDeviceInfoListNode deviceInfo;
-    private final String resqId;
+    private final SimulatorConnection.SimulatorDeviceHandle handle;
 
     public SimFT_Device(SerialNumber serialNumber) {
         this.serialNumber = serialNumber;
-        resqId = serialNumber.toString();
+        // Resolved once here; reads and writes go straight to the handle
+        handle = SimulatorConnection.open(serialNumber.toString());
     }
 
     public void purge(byte purgeWhat) {
-
+        if ((purgeWhat & D2xxManager.FT_PURGE_RX) != 0) {
+            SimulatorConnection.purgeRead(handle);
+        }
     }
 
     public boolean setBaudRate(int baudRate) {
@@ -64,16 +67,54 @@ public class SimFT_Device {
         }
     }
 
-    public void write(byte[] data) {
-        SimulatorConnection.write(resqId, data, data.length);
+    /**
+     * Follows FT_Device.write: returns the number of bytes written, 0 if the write was dropped
+     * because the write queue stayed full, or -1 if interrupted while waiting for room.
+     */
+    public int write(byte[] data) {
+        return SimulatorConnection.write(handle, data, data.length);
     }
 
     public int getReadTimeout() {
         return readTimeout;
     }
 
+    /**
+     * Follows FT_Device.read: returns cbToRead once that many bytes have arrived, or 0 if they
+     * don't arrive within msTimeout.
+     */
     public int read(byte[] data, int cbToRead, long msTimeout) {
-        return SimulatorConnection.read(resqId, data, cbToRead);
+        return SimulatorConnection.read(handle, data, cbToRead, msTimeout);
+    }
+
+    /**
+     * Like {@link #read(byte[], int, long)} but with an absolute {@link System#nanoTime()} deadline.
+     */
+    public int readBefore(byte[] data, int cbToRead, long deadlineNanos) {
+        return SimulatorConnection.readBefore(handle, data, cbToRead, deadlineNanos);
+    }
+
+    /**
+     * Tell the connection that a read of cbToRead bytes was given up on, so its response is
+     * dropped if it turns up late.
+     */
+    public void abandonRead(int cbToRead) {
+        SimulatorConnection.abandonRead(handle, cbToRead);
+    }
+
+    /** Reads that were given up because their data didn't arrive in time */
+    public long getReadTimeoutCount() {
+        return SimulatorConnection.getReadTimeoutCount(handle);
+    }
+
+    /** Responses that arrived after their read had timed out, and were dropped */
+    public long getLatePacketCount() {
+        return SimulatorConnection.getLatePacketCount(handle);
+    }
+
+    /** Writes dropped because no client drained the write queue in time */
+    public long getDroppedWriteCount() {
+        return SimulatorConnection.getDroppedWriteCount(handle);
     }
 
     public void close() {
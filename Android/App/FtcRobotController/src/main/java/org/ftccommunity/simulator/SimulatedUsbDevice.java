@@ -15,6 +15,7 @@ import junit.framework.Assert;
 import java.util.Collection;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class SimulatedUsbDevice implements RobotUsbDevice {
     // contains all the devices currently opened
@@ -28,7 +29,8 @@ public class SimulatedUsbDevice implements RobotUsbDevice {
     private boolean interruptRequested;
     public final SerialNumber serialNumber;
     private DeviceManager.DeviceType deviceType;
-    private final static Object writeLock = new Object();
+    private final Object writeLock = new Object();
+    private volatile long writesOut;    // written under writeLock
     String deviceDescription;
 
     private SimulatedUsbDevice(SerialNumber serialNumber) {
@@ -141,20 +143,15 @@ public class SimulatedUsbDevice implements RobotUsbDevice {
     public void write(byte[] data) throws RobotCoreException, NullPointerException {
         purgeIfNecessary();
 
-        // Amazingly, there's a bug in the Android native USB layers that mean that
-        // writing to an FTDI USB device is not thread-safe. So we wrap a lock around our
-        // write call to guard against that.
-        //
-        // See:
-        //      http://stackoverflow.com/questions/9644415/
+        // FT_Device writes hold a *static* lock to work around a bug in the Android native USB
+        // layers that makes writing to FTDI devices not thread-safe, across all endpoints:
         //      https://code.google.com/p/android/issues/detail?id=59467
-        //      https://codereview.chromium.org/253293002/
-        //
-        // Note that the bug appears to be across all endpoints (though we're not completely certain
-        // of that). So the lock we take is a *static* lock.
+        // There is no native USB here, so a simulated device only needs its writers serialized
+        // among themselves (its write queue takes one producer at a time). The lock is per
+        // device, so writes to different controllers don't wait for each other.
 
         synchronized (writeLock) {
-            device.write(data);
+            if (device.write(data) == data.length) writesOut++;
         }
     }
 
@@ -171,7 +168,10 @@ public class SimulatedUsbDevice implements RobotUsbDevice {
     @Override
     public int read(byte[] data, int cbToRead, long msTimeoutRemaining) throws RobotCoreException, InterruptedException, NullPointerException {
         purgeIfNecessary();
-        while (msTimeoutRemaining > 0) {
+        // Slice against an absolute deadline, so time spent outside device.read (or a quantum that
+        // returns early) doesn't stretch the overall timeout
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(msTimeoutRemaining);
+        while ((msTimeoutRemaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) > 0) {
             //
             // FT_Device.read returns one of the following
             //  -1        the device was closed
@@ -186,9 +186,8 @@ public class SimulatedUsbDevice implements RobotUsbDevice {
             //
             final long msTimeoutQuantum = 100;
             long msTimeout = Math.min(msTimeoutQuantum, msTimeoutRemaining);
-            msTimeoutRemaining -= msTimeout;
             //
-            int cbRead = device.read(data, cbToRead, msTimeout);
+            int cbRead = device.readBefore(data, cbToRead, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(msTimeout));
             //
             if (cbRead == cbToRead) {
                 return cbRead;
@@ -206,6 +205,7 @@ public class SimulatedUsbDevice implements RobotUsbDevice {
             } else if (cbRead == 0) {
                 // Poll to see if we should get out of Dodge.
                 if (this.interruptRequested || Thread.currentThread().isInterrupted()) {
+                    device.abandonRead(cbToRead);
                     throw new InterruptedException();
                 }
             } else {
@@ -213,6 +213,7 @@ public class SimulatedUsbDevice implements RobotUsbDevice {
             }
         }
         // We hit the timeout
+        device.abandonRead(cbToRead);
         return 0;
     }
 
@@ -221,6 +222,14 @@ public class SimulatedUsbDevice implements RobotUsbDevice {
         this.interruptRequested = true;
     }
 
+    /**
+     * Writes that reached the device, not counting any it dropped because its write queue stayed
+     * full. Each one took the device's write lock once.
+     */
+    public long getWritesOut() {
+        return writesOut;
+    }
+
     @Override
     public void close() {
         device.close();
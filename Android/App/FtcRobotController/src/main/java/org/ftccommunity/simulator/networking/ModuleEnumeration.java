@@ -0,0 +1,275 @@
+package org.ftccommunity.simulator.networking;
+
+import com.qualcomm.robotcore.util.RobotLog;
+import com.qualcomm.robotcore.util.ThreadPool;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Asks the PC simulator which modules it simulates, using the binary module list
+ * (hagerty.simulator.ModuleEnumeration on the PC side).
+ * <p>
+ * The request is { '?', 'B', version }. A simulator that understands it answers with one or more
+ * fragments, each starting with the magic bytes 'S' 'M':
+ * <pre>
+ *    fragment   magic 'S' 'M'   version   fragment index   fragment count   revision (2 bytes)
+ *               entry count     reserved (0)    entries...
+ *    entry      brick type      serial length   serial (UTF-8)   port (2 bytes)
+ *               port count      port types (one byte per port)
+ * </pre>
+ * An older simulator ignores the extra bytes and answers with its XML module list, which we don't
+ * parse here; {@link #query()} returns null in that case and the caller carries on without a list.
+ * <p>
+ * The query goes to the machine the PC simulator connected to us from (see
+ * {@link SimulatorClients#remoteAddress()}). Until one has connected it goes to the host given to
+ * {@link #setHost(String)}, by default 10.0.2.2, the development machine as seen from the Android
+ * emulator.
+ * <p>
+ * A query that gets no answer takes {@code ATTEMPTS * TIMEOUT_MS}. {@link #latest(long)} runs it in
+ * the background and waits only as long as the caller can afford, so a scan isn't held up when no
+ * PC is listening.
+ */
+public final class ModuleEnumeration {
+    public static final String EMULATOR_HOST = "10.0.2.2";
+    public static final int PORT = 7000;
+
+    public static final int VERSION = 1;
+    private static final byte MAGIC_0 = 'S';
+    private static final byte MAGIC_1 = 'M';
+    private static final int HEADER_LENGTH = 9;
+
+    // Brick types
+    public static final int TYPE_UNKNOWN = 0;
+    public static final int TYPE_LEGACY_MODULE = 1;
+    public static final int TYPE_MOTOR_CONTROLLER = 2;
+    public static final int TYPE_SERVO_CONTROLLER = 3;
+    public static final int TYPE_DEVICE_INTERFACE_MODULE = 4;
+
+    // Port types. A device interface module lists its I2C ports, then analog inputs A0-A7, then
+    // digital channels D0-D7.
+    public static final int PORT_NONE = 0;
+    public static final int PORT_LEGACY_MOTOR = 1;
+    public static final int PORT_LEGACY_LIGHT = 2;
+    public static final int PORT_LEGACY_TOUCH = 3;
+    public static final int PORT_USB_MOTOR = 4;
+    public static final int PORT_USB_SERVO = 5;
+    public static final int PORT_ANALOG_INPUT = 6;
+    public static final int PORT_DIGITAL_INPUT = 7;
+    public static final int PORT_I2C_COLOR_SENSOR = 8;
+    public static final int PORT_LEGACY_GYRO = 9;
+    public static final int PORT_LEGACY_COMPASS = 10;
+    public static final int PORT_LEGACY_IR_SEEKER = 11;
+    public static final int PORT_LEGACY_ULTRASONIC = 12;
+
+    private static final int TIMEOUT_MS = 500;
+    private static final int ATTEMPTS = 3;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ExecutorService queryExecutor = ThreadPool.newSingleThreadExecutor();
+    private static final Callable<List<Entry>> QUERY = new Callable<List<Entry>>() {
+        @Override
+        public List<Entry> call() {
+            final List<Entry> modules = query();
+            if (modules != null) lastModules = modules;
+            return modules;
+        }
+    };
+
+    // The last list a query got, and the query in flight, if any (guarded by the class)
+    private static volatile List<Entry> lastModules;
+    private static Future<List<Entry>> pendingQuery;
+
+    // Where to ask while no simulator client is connected
+    private static volatile String fallbackHost = EMULATOR_HOST;
+
+    /**
+     * One simulated module
+     */
+    public static final class Entry {
+        public final int type;
+        public final String serial;
+        public final int port;
+        public final int[] portTypes;
+
+        Entry(int type, String serial, int port, int[] portTypes) {
+            this.type = type;
+            this.serial = serial;
+            this.port = port;
+            this.portTypes = portTypes;
+        }
+
+        @Override
+        public String toString() {
+            return "type " + type + " serial " + serial + " port " + port + " ports " + portTypes.length;
+        }
+    }
+
+    private ModuleEnumeration() {
+    }
+
+    /**
+     * Set the host to ask for the module list while the PC simulator isn't connected, for a robot
+     * controller that isn't running in the emulator.
+     */
+    public static void setHost(String host) {
+        fallbackHost = host;
+    }
+
+    /**
+     * The PC simulator: the machine a simulator client connected from, or the fallback host if
+     * none is connected.
+     */
+    static InetAddress simulatorAddress() throws UnknownHostException {
+        final InetAddress client = SimulatorClients.remoteAddress();
+        return client != null ? client : InetAddress.getByName(fallbackHost);
+    }
+
+    /**
+     * The module list, as fresh as can be had within {@code waitMs}. Starts a query unless one is
+     * already running and waits up to {@code waitMs} for it. If it doesn't finish in time the last
+     * list a query got is returned, and the query carries on in the background to refresh it.
+     *
+     * @return the modules, or null if no query has got a list yet
+     */
+    public static List<Entry> latest(long waitMs) {
+        final Future<List<Entry>> query;
+        synchronized (ModuleEnumeration.class) {
+            if (pendingQuery == null || pendingQuery.isDone()) pendingQuery = queryExecutor.submit(QUERY);
+            query = pendingQuery;
+        }
+        try {
+            query.get(waitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            RobotLog.d("[SIM] module list not in yet, using the last one");
+        } catch (ExecutionException e) {
+            RobotLog.e("[SIM] module list query failed: " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return lastModules;
+    }
+
+    /**
+     * Ask the simulator at {@link #simulatorAddress()} for its module list. Blocks for up to
+     * {@code ATTEMPTS * TIMEOUT_MS}; see {@link #latest(long)}.
+     *
+     * @return the modules, or null if the simulator didn't answer or only speaks XML
+     */
+    public static List<Entry> query() {
+        DatagramSocket socket = null;
+        try {
+            InetAddress address = simulatorAddress();
+            socket = new DatagramSocket();
+            socket.setSoTimeout(TIMEOUT_MS);
+            byte[] request = {'?', 'B', VERSION};
+
+            for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+                socket.send(new DatagramPacket(request, request.length, address, PORT));
+                Reassembler reassembler = new Reassembler();
+                byte[] buffer = new byte[2048];
+                try {
+                    while (!reassembler.isComplete()) {
+                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                        socket.receive(packet);
+                        if (packet.getLength() >= 1 && buffer[0] == '<') {
+                            RobotLog.w("[SIM] simulator answered with an XML module list, binary list not supported");
+                            return null;
+                        }
+                        reassembler.add(buffer, packet.getLength());
+                    }
+                    return reassembler.entries();
+                } catch (SocketTimeoutException e) {
+                    RobotLog.d("[SIM] module list timed out, attempt " + (attempt + 1));
+                }
+            }
+        } catch (IOException e) {
+            RobotLog.e("[SIM] module list request failed: " + e.getMessage());
+        } finally {
+            if (socket != null) socket.close();
+        }
+        return null;
+    }
+
+    /**
+     * Collects the fragments of one module list. Fragments of an older list are dropped when a
+     * fragment with a different revision shows up.
+     */
+    static final class Reassembler {
+        private int revision = -1;
+        private List<List<Entry>> fragments;
+        private int received;
+
+        void add(byte[] data, int length) {
+            if (length < HEADER_LENGTH) return;
+            ByteBuffer packet = ByteBuffer.wrap(data, 0, length);
+            if (packet.get() != MAGIC_0 || packet.get() != MAGIC_1) return;
+            int version = packet.get() & 0xFF;
+            if (version != VERSION) {
+                RobotLog.w("[SIM] ignoring module list version " + version);
+                return;
+            }
+            int index = packet.get() & 0xFF;
+            int count = packet.get() & 0xFF;
+            int fragmentRevision = packet.getShort() & 0xFFFF;
+            int entryCount = packet.get() & 0xFF;
+            packet.get(); // reserved
+            if (count == 0 || index >= count) return;
+
+            if (fragmentRevision != revision || fragments == null || fragments.size() != count) {
+                revision = fragmentRevision;
+                fragments = new ArrayList<>(Collections.<List<Entry>>nCopies(count, null));
+                received = 0;
+            }
+            if (fragments.get(index) != null) return;
+
+            List<Entry> entries = new ArrayList<>(entryCount);
+            try {
+                for (int i = 0; i < entryCount; i++) {
+                    int type = packet.get() & 0xFF;
+                    byte[] serial = new byte[packet.get() & 0xFF];
+                    packet.get(serial);
+                    int port = packet.getShort() & 0xFFFF;
+                    int[] portTypes = new int[packet.get() & 0xFF];
+                    for (int j = 0; j < portTypes.length; j++) {
+                        portTypes[j] = packet.get() & 0xFF;
+                    }
+                    entries.add(new Entry(type, new String(serial, UTF_8), port, portTypes));
+                }
+            } catch (BufferUnderflowException e) {
+                RobotLog.w("[SIM] dropping truncated module list fragment " + index);
+                return;
+            }
+            fragments.set(index, entries);
+            received++;
+        }
+
+        boolean isComplete() {
+            return fragments != null && received == fragments.size();
+        }
+
+        List<Entry> entries() {
+            List<Entry> entries = new ArrayList<>();
+            for (List<Entry> fragment : fragments) {
+                entries.addAll(fragment);
+            }
+            return Collections.unmodifiableList(entries);
+        }
+    }
+}
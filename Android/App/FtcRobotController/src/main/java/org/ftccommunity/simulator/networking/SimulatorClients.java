@@ -0,0 +1,242 @@
+package org.ftccommunity.simulator.networking;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+/**
+ * The clients connected to the simulator server, for example a physics simulator, a telemetry
+ * recorder and a dashboard at the same time.
+ * <p>
+ * Each client subscribes to the devices it wants to hear from; a new client hears from all of
+ * them until it subscribes to one. Every device is announced to every client, so a client can
+ * find out what there is to subscribe to.
+ * <p>
+ * Device writes are taken off their queues once per flush and fanned out to the subscribers as
+ * retained duplicates of the same buffer, so the bytes are never copied per client. A client whose
+ * outbound buffer is above its high water mark ({@link Channel#isWritable()} false) is skipped and
+ * its drop count goes up; a slow client loses data instead of holding up the others.
+ */
+public final class SimulatorClients {
+    private static final ChannelGroup clients = new DefaultChannelGroup("simulator", GlobalEventExecutor.INSTANCE);
+    private static final AttributeKey<Subscriber> SUBSCRIBER = AttributeKey.valueOf("simulator.subscriber");
+
+    // Flushes run on the event loop of one of the clients, one at a time. Clients are added and
+    // removed, and the executor picked, under clientsLock so it is never left null with a client
+    // still connected.
+    private static volatile EventExecutor flushExecutor;
+    private static final Object clientsLock = new Object();
+    private static final Object flushLock = new Object();
+    private static final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private static final Runnable FLUSH_WRITES = new Runnable() {
+        @Override
+        public void run() {
+            flushWrites();
+        }
+    };
+
+    private SimulatorClients() {
+    }
+
+    /**
+     * What one client wants to hear about, and what it has been told so far.
+     */
+    static final class Subscriber {
+        private final Set<String> devices = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private volatile boolean everything = true;
+
+        // Indices of the devices announced to this client. Flush only.
+        private final BitSet announced = new BitSet();
+        private boolean dirty;
+
+        volatile long droppedWrites;
+
+        boolean wants(String id) {
+            return everything || devices.contains(id);
+        }
+
+        /**
+         * Subscribe to one device. The first subscription ends the default of hearing everything.
+         */
+        void subscribe(String id) {
+            devices.add(id);
+            everything = false;
+        }
+
+        void subscribeAll() {
+            everything = true;
+        }
+
+        void unsubscribe(String id) {
+            devices.remove(id);
+        }
+    }
+
+    /**
+     * A client connected. Every device is announced to it and it hears from all of them until it
+     * subscribes.
+     */
+    static void attach(Channel channel) {
+        channel.attr(SUBSCRIBER).set(new Subscriber());
+        synchronized (clientsLock) {
+            clients.add(channel);
+            if (flushExecutor == null) flushExecutor = channel.eventLoop();
+        }
+        scheduleFlush();
+    }
+
+    static void detach(Channel channel) {
+        synchronized (clientsLock) {
+            clients.remove(channel);
+            if (flushExecutor == channel.eventLoop()) {
+                // Move flushing to a client that is still here, if any
+                EventExecutor next = null;
+                for (Channel client : clients) {
+                    next = client.eventLoop();
+                    break;
+                }
+                flushExecutor = next;
+            }
+        }
+    }
+
+    static Subscriber subscriber(Channel channel) {
+        return channel.attr(SUBSCRIBER).get();
+    }
+
+    public static int count() {
+        return clients.size();
+    }
+
+    /**
+     * The address of a connected client, or null if none is connected. The PC simulator is the
+     * one connecting to us, so this is where it can be reached on a real robot controller as well
+     * as in the emulator.
+     */
+    public static InetAddress remoteAddress() {
+        for (Channel client : clients) {
+            final SocketAddress address = client.remoteAddress();
+            if (address instanceof InetSocketAddress) return ((InetSocketAddress) address).getAddress();
+        }
+        return null;
+    }
+
+    /**
+     * Make sure a flush is queued. However many writes come in before it runs, they go out
+     * together with a single flush per client.
+     */
+    static void scheduleFlush() {
+        final EventExecutor executor = flushExecutor;
+        if (executor == null) return;
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(FLUSH_WRITES);
+            } catch (RejectedExecutionException e) {
+                flushScheduled.set(false); // event loop shutting down
+            }
+        }
+    }
+
+    /**
+     * Write out everything the devices have queued to the clients that want it, then flush each
+     * client that got something.
+     */
+    private static void flushWrites() {
+        // Clear first, so a write that lands while we scan schedules another pass
+        flushScheduled.set(false);
+        if (clients.isEmpty()) return;
+
+        synchronized (flushLock) {
+            final ByteBufAllocator alloc = ByteBufAllocator.DEFAULT;
+            for (SimulatorConnection.SimulatorDeviceHandle handle : SimulatorConnection.handles()) {
+                announce(alloc, handle);
+
+                // Writes are published whole, so this never splits a packet
+                final ByteBuf message = SimulatorProtocol.takeWriteMessage(alloc, handle);
+                if (message == null) continue;
+                try {
+                    for (Channel client : clients) {
+                        final Subscriber subscriber = subscriber(client);
+                        if (subscriber == null || !subscriber.wants(handle.id)) continue;
+                        if (!client.isWritable() || !subscriber.announced.get(handle.index)) {
+                            subscriber.droppedWrites++;
+                            continue;
+                        }
+                        client.write(message.retainedDuplicate(), client.voidPromise());
+                        subscriber.dirty = true;
+                    }
+                } finally {
+                    message.release();
+                }
+            }
+
+            for (Channel client : clients) {
+                final Subscriber subscriber = subscriber(client);
+                if (subscriber != null && subscriber.dirty) {
+                    subscriber.dirty = false;
+                    client.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Tell each client about the device, once. An announcement is never dropped for
+     * backpressure, only put off until the client drains; the device's data is dropped for that
+     * client until then. A text client's pipeline drops the announcement; if the client switches
+     * to binary it is announced everything again then.
+     */
+    private static void announce(ByteBufAllocator alloc, SimulatorConnection.SimulatorDeviceHandle handle) {
+        ByteBuf announcement = null;
+        try {
+            for (Channel client : clients) {
+                final Subscriber subscriber = subscriber(client);
+                if (subscriber == null || subscriber.announced.get(handle.index)) continue;
+                if (!client.isWritable()) continue;
+                if (announcement == null) announcement = SimulatorProtocol.announceMessage(alloc, handle);
+                client.write(announcement.retainedDuplicate(), client.voidPromise());
+                subscriber.dirty = true;
+                subscriber.announced.set(handle.index);
+            }
+        } finally {
+            if (announcement != null) announcement.release();
+        }
+    }
+
+    /**
+     * Subscribe a client to a device ("*" for all of them), or unsubscribe it.
+     *
+     * @return false if the channel isn't a client or the id is empty
+     */
+    static boolean subscribe(Channel channel, boolean subscribe, String id) {
+        final Subscriber subscriber = subscriber(channel);
+        if (subscriber == null || id.isEmpty()) return false;
+
+        if (!subscribe) {
+            subscriber.unsubscribe(id);
+        } else if ("*".equals(id)) {
+            subscriber.subscribeAll();
+        } else {
+            subscriber.subscribe(id);
+        }
+        RobotLog.d("[SIM] " + channel.remoteAddress() + (subscribe ? " subscribed to " : " unsubscribed from ") + id);
+        return true;
+    }
+}
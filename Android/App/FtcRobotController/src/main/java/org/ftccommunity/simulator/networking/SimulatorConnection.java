@@ -1,103 +1,321 @@
 package org.ftccommunity.simulator.networking;
 
+import com.qualcomm.robotcore.util.RobotLog;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import io.netty.buffer.ByteBuf;
 
 public final class SimulatorConnection {
-    private static final Hashtable<String, SimulatorDeviceHandle> handles = new Hashtable<>();
+    // Handles by index, replaced (never changed) under registryLock when a device is added, so
+    // the network thread looks devices up without taking a lock. byId is only used when opening
+    // a device and by the text protocol.
+    private static volatile SimulatorDeviceHandle[] handlesByIndex = new SimulatorDeviceHandle[0];
+    private static final ConcurrentHashMap<String, SimulatorDeviceHandle> byId = new ConcurrentHashMap<>();
+    private static final Object registryLock = new Object();
     public static final String VERSION = "0.0.1";
 
-    public static int read(String resqId, byte[] data, int length) {
-        final SimulatorDeviceHandle simulatorDeviceHandle = handles.get(resqId);
+    // Longest a writer waits for room in a full write queue before dropping the write
+    static final long WRITE_WAIT_MS = 100;
 
-        // Wait until we have the data we want
-        ByteQueue queue = simulatorDeviceHandle.readQueue;
-        while (queue.size() < length) {
-            // Wait for more data
-            if (idle()) return -1;
-        }
+    /**
+     * Read exactly {@code length} bytes, waiting up to {@code msTimeout} for them to arrive.
+     *
+     * @see #readBefore(SimulatorDeviceHandle, byte[], int, long)
+     */
+    public static int read(SimulatorDeviceHandle handle, byte[] data, int length, long msTimeout) {
+        return readBefore(handle, data, length, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(msTimeout));
+    }
+
+    /**
+     * Read exactly {@code length} bytes, waiting until the {@link System#nanoTime()} deadline for
+     * them to arrive. The network thread wakes us as soon as data is queued.
+     * <p>
+     * Bytes owed to reads given up with {@link #abandonRead(SimulatorDeviceHandle, int)} are dropped as they
+     * arrive instead of being handed to this read.
+     *
+     * @return {@code length}, 0 on timeout or interrupt (nothing is consumed then), or -2 if
+     * {@code length} can never be satisfied
+     */
+    public static int readBefore(SimulatorDeviceHandle simulatorDeviceHandle, byte[] data, int length, long deadlineNanos) {
+        SpscByteRing queue = simulatorDeviceHandle.readQueue;
+        if (length <= 0 || length > queue.capacity()) return -2;
 
-        try {
-            synchronized (simulatorDeviceHandle.lock) {
-                simulatorDeviceHandle.isLocked = true;
-                for (int i = length; i > 0; i--) {
-                    data[length - i] = queue.getFront();
+        simulatorDeviceHandle.discardLateBytes();
+        if (queue.size() < length) {
+            // Register before checking again, so data arriving in between still unparks us
+            simulatorDeviceHandle.readWaiter = Thread.currentThread();
+            try {
+                while (true) {
+                    simulatorDeviceHandle.discardLateBytes();
+                    if (queue.size() >= length) break;
+
+                    final long remaining = deadlineNanos - System.nanoTime();
+                    if (remaining <= 0 || Thread.currentThread().isInterrupted()) return 0;
+                    LockSupport.parkNanos(simulatorDeviceHandle, remaining);
                 }
+            } finally {
+                simulatorDeviceHandle.readWaiter = null;
             }
-        } finally {
-            simulatorDeviceHandle.isLocked = false;
         }
 
+        queue.poll(data, 0, length);
         return length;
     }
 
-    private static boolean idle() {
-        try {
-            Thread.sleep(10);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt(); // re-interrupt current thread
-            return true;
-        }
-        return false;
+    /**
+     * The reader gave up waiting for {@code length} bytes. The response may still arrive; if it
+     * does within a second it is dropped (and counted as a late packet) rather than handed to the
+     * next read as if it were the answer to a newer request.
+     */
+    public static void abandonRead(SimulatorDeviceHandle handle, int length) {
+        handle.timedOut(length);
+    }
+
+    /**
+     * Drop everything queued for reading, including bytes still owed to timed out reads. Called by
+     * the device's reader (an RX purge).
+     */
+    public static void purgeRead(SimulatorDeviceHandle handle) {
+        handle.owedReads.clear();
+        handle.readQueue.clear();
     }
 
-    public static int write(String resqId, byte[] data, int length) {
-        final SimulatorDeviceHandle simulatorDeviceHandle = handles.get(resqId);
+    public static long getReadTimeoutCount(SimulatorDeviceHandle handle) {
+        return handle.readTimeouts;
+    }
 
-        // Copy the data onto our queue
-        ByteQueue queue = simulatorDeviceHandle.writeQueue;
-        try {
-            simulatorDeviceHandle.isLocked = true;
-            synchronized (simulatorDeviceHandle.lock) {
-                simulatorDeviceHandle.isLocked = true;
-                for (int i = 0; i < length; i++) {
-                    queue.insert(data[i]);
-                }
-                simulatorDeviceHandle.writeUpdate = true;
-            }
-        } finally {
-            simulatorDeviceHandle.isLocked = false;
+    public static long getLatePacketCount(SimulatorDeviceHandle handle) {
+        return handle.latePackets;
+    }
+
+    public static long getLateByteCount(SimulatorDeviceHandle handle) {
+        return handle.lateBytes;
+    }
+
+    /**
+     * Queue {@code length} bytes for the connected clients and schedule a flush. If the device's
+     * queue is full, waits up to {@link #WRITE_WAIT_MS} for a flush to make room while a client is
+     * connected; with no client, or if the wait runs out, the write is dropped and counted, so the
+     * writer never hangs waiting for a PC to attach.
+     *
+     * @return {@code length}, 0 if the write was dropped, or -1 if interrupted while waiting for room
+     */
+    public static int write(SimulatorDeviceHandle simulatorDeviceHandle, byte[] data, int length) {
+        SpscByteRing queue = simulatorDeviceHandle.writeQueue;
+        if (length > queue.capacity()) {
+            throw new IllegalArgumentException("write of " + length + " bytes exceeds queue capacity " + queue.capacity());
         }
 
-        while (!simulatorDeviceHandle.writeUpdate) {
-            if (idle()) return -1;
+        if (!queue.offer(data, 0, length)) {
+            if (SimulatorClients.count() == 0) {
+                simulatorDeviceHandle.droppedWrites++;
+                return 0;
+            }
+            SimulatorClients.scheduleFlush();
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WRITE_WAIT_MS);
+            simulatorDeviceHandle.writeWaiter = Thread.currentThread();
+            try {
+                while (!queue.offer(data, 0, length)) {
+                    if (Thread.currentThread().isInterrupted()) return -1;
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        simulatorDeviceHandle.droppedWrites++;
+                        return 0;
+                    }
+                    LockSupport.parkNanos(simulatorDeviceHandle, remaining);
+                }
+            } finally {
+                simulatorDeviceHandle.writeWaiter = null;
+            }
         }
 
+        SimulatorClients.scheduleFlush();
         return length;
     }
 
-    static Enumeration<SimulatorDeviceHandle> handles() {
-        return handles.elements();
+    public static long getDroppedWriteCount(SimulatorDeviceHandle handle) {
+        return handle.droppedWrites;
+    }
+
+    /**
+     * Take everything a device has queued for writing, appending it to a buffer, and wake its
+     * writer if it was waiting for room. Called from SimulatorClients' flush only.
+     *
+     * @return the number of bytes taken
+     */
+    static int takeWrites(SimulatorDeviceHandle handle, ByteBuf dst) {
+        final int taken = handle.writeQueue.poll(dst, handle.writeQueue.size());
+        if (taken > 0) LockSupport.unpark(handle.writeWaiter);
+        return taken;
+    }
+
+    static int pendingWrites(SimulatorDeviceHandle handle) {
+        return handle.writeQueue.size();
+    }
+
+    /**
+     * All devices, in index order. The array is a snapshot and must not be modified.
+     */
+    static SimulatorDeviceHandle[] handles() {
+        return handlesByIndex;
     }
 
     static void readInData(String id, String... bytes) {
-        final SimulatorDeviceHandle handle = handles.get(id);
-        synchronized (handle.lock) {
-            for (String aByte : bytes) {
-                handle.readQueue.insert(Byte.parseByte(aByte));
+        final SimulatorDeviceHandle handle = byId.get(id);
+        if (handle == null) {
+            RobotLog.w("[SIM] data for unknown device " + id);
+            return;
+        }
+        final byte[] data = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            data[i] = Byte.parseByte(bytes[i]);
+        }
+        synchronized (handle.readLock) {
+            if (!handle.readQueue.offer(data, 0, data.length)) {
+                RobotLog.w("[SIM] read queue for " + id + " is full, dropped " + data.length + " bytes");
+            }
+        }
+        LockSupport.unpark(handle.readWaiter);
+    }
+
+    /**
+     * Queue the readable bytes of {@code payload} for the device with the given index, straight
+     * from the network buffer. Each client's channel runs on its own Netty thread, so the offer is
+     * made under the device's read lock to keep the read queue single producer.
+     */
+    static void readInData(int index, ByteBuf payload) {
+        final SimulatorDeviceHandle handle = handle(index);
+        if (handle == null) {
+            RobotLog.w("[SIM] data for unknown device index " + index);
+            return;
+        }
+        final int length = payload.readableBytes();
+        synchronized (handle.readLock) {
+            if (!handle.readQueue.offer(payload, length)) {
+                RobotLog.w("[SIM] read queue for " + handle.id + " is full, dropped " + length + " bytes");
+            }
+        }
+        LockSupport.unpark(handle.readWaiter);
+    }
+
+    /**
+     * Open a device: create its handle, unless it already exists, and return it. Callers keep the
+     * handle, so reads and writes never look the device up again. Handles are numbered in the
+     * order they are made; the binary protocol addresses devices by that index.
+     */
+    public static SimulatorDeviceHandle open(String id) {
+        SimulatorDeviceHandle handle = byId.get(id);
+        if (handle != null) return handle;
+
+        synchronized (registryLock) {
+            handle = byId.get(id);
+            if (handle == null) {
+                final SimulatorDeviceHandle[] old = handlesByIndex;
+                handle = new SimulatorDeviceHandle(id, old.length);
+                final SimulatorDeviceHandle[] grown = Arrays.copyOf(old, old.length + 1);
+                grown[handle.index] = handle;
+                byId.put(id, handle);
+                handlesByIndex = grown;
             }
+            return handle;
         }
     }
 
-    static void makeDevice(String id) {
-        handles.put(id, new SimulatorDeviceHandle(id));
+    static SimulatorDeviceHandle handle(int index) {
+        final SimulatorDeviceHandle[] handles = handlesByIndex;
+        return index >= 0 && index < handles.length ? handles[index] : null;
     }
 
-    static class SimulatorDeviceHandle {
+    /**
+     * The queues between a simulated device and the network. Each queue has one producer and one
+     * consumer: the network threads fill readQueue, one at a time under readLock since several
+     * clients may be connected, and the device's reader empties it; the device's
+     * writer (serialized by SimulatedUsbDevice's write lock) fills writeQueue and the flush in
+     * SimulatorClients empties it.
+     * <p>
+     * Opaque outside this package; get one from {@link #open(String)}.
+     */
+    public static final class SimulatorDeviceHandle {
+        static final int QUEUE_CAPACITY = 4096;
+
         final String id;
-        final ByteQueue readQueue;
-        final ByteQueue writeQueue;
-        final Object lock;
+        final int index;
+        final SpscByteRing readQueue;
+        final SpscByteRing writeQueue;
+
+        // Held by whichever network thread is offering into readQueue
+        final Object readLock = new Object();
+
+        // Threads parked waiting for data to read or for room to write, if any
+        volatile Thread readWaiter;
+        volatile Thread writeWaiter;
 
-        public volatile boolean isLocked;
-        public volatile boolean writeUpdate;
+        // Reads that timed out and whose responses may still arrive.  Reader only.
+        final ArrayDeque<OwedRead> owedReads = new ArrayDeque<>();
 
-        private SimulatorDeviceHandle(String id) {
+        // Statistics, written by the reader only
+        volatile long readTimeouts;
+        volatile long latePackets;
+        volatile long lateBytes;
+
+        // Writes dropped because the write queue stayed full. Writer only.
+        volatile long droppedWrites;
+
+        private SimulatorDeviceHandle(String id, int index) {
             this.id = id;
-            lock = new Object();
-            readQueue = new ByteQueue();
-            writeQueue = new ByteQueue();
+            this.index = index;
+            readQueue = new SpscByteRing(QUEUE_CAPACITY);
+            writeQueue = new SpscByteRing(QUEUE_CAPACITY);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        void timedOut(int length) {
+            readTimeouts++;
+            owedReads.add(new OwedRead(length, System.nanoTime() + LATE_WINDOW_NANOS));
+        }
+
+        /**
+         * Skip whatever has arrived of the responses owed to timed out reads, oldest first. A
+         * response that hasn't shown up within the late window is assumed lost.
+         */
+        void discardLateBytes() {
+            while (!owedReads.isEmpty()) {
+                final OwedRead owed = owedReads.peek();
+                if (System.nanoTime() - owed.expires > 0) {
+                    owedReads.poll();
+                    continue;
+                }
+                final int skipped = readQueue.skip(owed.remaining);
+                lateBytes += skipped;
+                owed.remaining -= skipped;
+                if (owed.remaining > 0) return;  // the rest hasn't arrived yet
+                owedReads.poll();
+                latePackets++;
+            }
+        }
+    }
+
+    static final long LATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    static final class OwedRead {
+        int remaining;
+        final long expires;
+
+        OwedRead(int remaining, long expires) {
+            this.remaining = remaining;
+            this.expires = expires;
         }
     }
 }
@@ -0,0 +1,272 @@
+package org.ftccommunity.simulator.networking;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AttributeKey;
+
+/**
+ * Wire format of the simulator channel. Every client starts out with the text protocol and may
+ * switch its own connection to binary:
+ * <ul>
+ * <li>text: the original line protocol, {@code id:[b0, b1, ...]} per write, handy with telnet</li>
+ * <li>binary: length prefixed frames with raw payloads. A client asks for it with the line
+ * {@code PROTOCOL BINARY}; the last text line it gets is {@code OK PROTOCOL BINARY}, and everything
+ * after that is binary, starting with a HELLO frame and the DEVICE frames. It should send nothing
+ * after the request until the OK has arrived.</li>
+ * </ul>
+ * A binary frame is
+ * <pre>
+ *    length (2 bytes)   device index (2 bytes)   opcode (1 byte)   payload (length - 3 bytes)
+ * </pre>
+ * big endian, where the length counts everything after itself. Device indices come from
+ * {@link SimulatorConnection#open(String)}; each device is announced with a DEVICE frame
+ * (payload: its serial number in UTF-8) before its first DATA frame.
+ * <p>
+ * The flush writes binary frames to every client; a text client's pipeline turns the DATA frames
+ * into lines on the way out (see {@link TextFrameEncoder}), so a client switching over never gets
+ * a message encoded for the other protocol.
+ * <p>
+ * Several clients can be connected at once, see {@link SimulatorClients}. A client hears from
+ * every device until it sends a SUBSCRIBE frame (text: {@code SUB id}); from then on only from the
+ * devices it subscribed to.
+ */
+public final class SimulatorProtocol {
+    // The text command that switches a connection to binary
+    public static final String SWITCH_TO_BINARY = "PROTOCOL BINARY";
+
+    // Opcodes
+    public static final int OP_HELLO = 0;       // phone to PC on connect, payload is the version
+    public static final int OP_DEVICE = 1;      // phone to PC, announces a device index, payload is its serial
+    public static final int OP_DATA = 2;        // either way, raw bytes written to / read from a device
+    public static final int OP_HEARTBEAT = 3;   // either way, no payload
+    public static final int OP_DISCONNECT = 4;  // either way, no payload
+    public static final int OP_SUBSCRIBE = 5;   // PC to phone, payload is a serial, or "*" for all devices
+    public static final int OP_UNSUBSCRIBE = 6; // PC to phone, payload is a serial
+
+    static final int LENGTH_FIELD = 2;
+    static final int HEADER_LENGTH = 3;         // device index + opcode, after the length
+    static final int MAX_FRAME_LENGTH = 0xFFFF;
+
+    static final int NO_DEVICE = 0xFFFF;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final long HEARTBEAT_MS = 500;
+
+    // Names of the pipeline handlers that change when a connection switches to binary
+    static final String FRAMER = "framer";
+    static final String STRING_DECODER = "stringDecoder";
+    static final String STRING_ENCODER = "stringEncoder";
+    static final String FRAME_ENCODER = "frameEncoder";
+    static final String HANDLER = "handler";
+
+    private static final AttributeKey<Boolean> BINARY = AttributeKey.valueOf("simulator.binary");
+
+    static final BinaryServerHandler BINARY_HANDLER = new BinaryServerHandler();
+    static final TextFrameEncoder TEXT_FRAME_ENCODER = new TextFrameEncoder();
+    static final HeartbeatHandler HEARTBEAT_HANDLER = new HeartbeatHandler();
+
+    private SimulatorProtocol() {
+    }
+
+    static boolean isBinary(Channel channel) {
+        return Boolean.TRUE.equals(channel.attr(BINARY).get());
+    }
+
+    /**
+     * Switch a text connection to binary: answer OK in text, swap the codecs and the handler, then
+     * say hello and announce the devices in binary. Runs as one task on the channel's event loop,
+     * so a write the flush makes from another thread is encoded wholly before or wholly after the
+     * switch.
+     */
+    static void switchToBinary(final Channel channel) {
+        channel.eventLoop().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (isBinary(channel) || !channel.isActive()) return;
+                channel.writeAndFlush("OK " + SWITCH_TO_BINARY + "\r\n");
+
+                final ChannelPipeline pipeline = channel.pipeline();
+                pipeline.replace(FRAMER, FRAMER, new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH + LENGTH_FIELD, 0, LENGTH_FIELD, 0, LENGTH_FIELD));
+                pipeline.remove(STRING_DECODER);
+                pipeline.remove(STRING_ENCODER);
+                pipeline.replace(FRAME_ENCODER, FRAME_ENCODER, new LengthFieldPrepender(LENGTH_FIELD));
+                pipeline.replace(HANDLER, HANDLER, BINARY_HANDLER);
+                channel.attr(BINARY).set(true);
+
+                // Announcements made while the client was on text were dropped, so make them again
+                final ByteBufAllocator alloc = channel.alloc();
+                byte[] version = SimulatorConnection.VERSION.getBytes(UTF_8);
+                ByteBuf hello = frame(alloc, NO_DEVICE, OP_HELLO, version.length);
+                hello.writeBytes(version);
+                channel.write(hello);
+                for (SimulatorConnection.SimulatorDeviceHandle handle : SimulatorConnection.handles()) {
+                    channel.write(announceMessage(alloc, handle));
+                }
+                channel.flush();
+                RobotLog.i("[SIM] " + channel.remoteAddress() + " switched to the binary protocol");
+            }
+        });
+    }
+
+    /**
+     * Heartbeat on write idle. Must come after the encoders, so heartbeats are encoded too.
+     */
+    static void addHeartbeat(ChannelPipeline pipeline) {
+        pipeline.addLast(new IdleStateHandler(0, HEARTBEAT_MS, 0, TimeUnit.MILLISECONDS));
+        pipeline.addLast(HEARTBEAT_HANDLER);
+    }
+
+    /**
+     * Start a frame; the caller appends the payload. The length is added by the pipeline.
+     */
+    static ByteBuf frame(ByteBufAllocator alloc, int device, int opcode, int payloadLength) {
+        ByteBuf frame = alloc.buffer(HEADER_LENGTH + payloadLength);
+        frame.writeShort(device);
+        frame.writeByte(opcode);
+        return frame;
+    }
+
+    /**
+     * A DATA frame carrying everything a device has queued for writing, or null if nothing is
+     * queued. The same frame goes to every client, whichever protocol it speaks.
+     */
+    static ByteBuf takeWriteMessage(ByteBufAllocator alloc, SimulatorConnection.SimulatorDeviceHandle handle) {
+        final int pending = SimulatorConnection.pendingWrites(handle);
+        if (pending == 0) return null;
+        ByteBuf frame = frame(alloc, handle.index, OP_DATA, pending);
+        SimulatorConnection.takeWrites(handle, frame);
+        return frame;
+    }
+
+    /**
+     * The frame telling the other end which index a device has. Dropped on the way out to a text
+     * client.
+     */
+    static ByteBuf announceMessage(ByteBufAllocator alloc, SimulatorConnection.SimulatorDeviceHandle handle) {
+        byte[] serial = handle.id.getBytes(UTF_8);
+        ByteBuf frame = frame(alloc, handle.index, OP_DEVICE, serial.length);
+        frame.writeBytes(serial);
+        return frame;
+    }
+
+    static Object heartbeatMessage(ChannelHandlerContext ctx) {
+        if (isBinary(ctx.channel())) return frame(ctx.alloc(), NO_DEVICE, OP_HEARTBEAT, 0);
+        return "BEAT\r\n";
+    }
+
+    /**
+     * Server side of the binary protocol, shared by all clients. Takes over from the text handler
+     * when a client switches, so the client is already attached.
+     */
+    @ChannelHandler.Sharable
+    static class BinaryServerHandler extends SimpleChannelInboundHandler<ByteBuf> {
+        @Override
+        public void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) throws Exception {
+            final int device = frame.readUnsignedShort();
+            final int opcode = frame.readUnsignedByte();
+            switch (opcode) {
+                case OP_DATA:
+                    SimulatorConnection.readInData(device, frame);
+                    break;
+                case OP_HEARTBEAT:
+                    break;
+                case OP_SUBSCRIBE:
+                case OP_UNSUBSCRIBE:
+                    SimulatorClients.subscribe(ctx.channel(), opcode == OP_SUBSCRIBE, frame.toString(UTF_8));
+                    break;
+                case OP_DISCONNECT:
+                    ctx.close();
+                    break;
+                default:
+                    RobotLog.w("[SIM] ignoring frame with opcode " + opcode);
+            }
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            // Anything put off while this client was backed up can go out now
+            if (ctx.channel().isWritable()) SimulatorClients.scheduleFlush();
+            super.channelWritabilityChanged(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            SimulatorClients.detach(ctx.channel());
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            RobotLog.e("[SIM-net] " + cause.getMessage());
+            ctx.close();
+        }
+    }
+
+    /**
+     * Turns the frames written to a text client into lines: a DATA frame becomes
+     * {@code id:[b0, b1, ...]}, anything else is dropped. Sits on the tail side of the string
+     * encoder, and is swapped for the length prepender when the client switches to binary.
+     */
+    @ChannelHandler.Sharable
+    static class TextFrameEncoder extends ChannelOutboundHandlerAdapter {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (!(msg instanceof ByteBuf)) {
+                ctx.write(msg, promise);
+                return;
+            }
+
+            final ByteBuf frame = (ByteBuf) msg;
+            try {
+                final int start = frame.readerIndex();
+                final SimulatorConnection.SimulatorDeviceHandle handle = SimulatorConnection.handle(frame.getUnsignedShort(start));
+                if (frame.getUnsignedByte(start + 2) != OP_DATA || handle == null) {
+                    promise.trySuccess();
+                    return;
+                }
+
+                final byte[] data = new byte[frame.readableBytes() - HEADER_LENGTH];
+                frame.getBytes(start + HEADER_LENGTH, data);
+                final String writeMsg = handle.id + ":" + Arrays.toString(data);
+                RobotLog.d("[SIM] writing " + writeMsg);
+                ctx.write(writeMsg + "\r\n", promise);
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * Sends a heartbeat whenever nothing has been written for {@link #HEARTBEAT_MS}, driven by
+     * the IdleStateHandler in front of it.
+     */
+    @ChannelHandler.Sharable
+    static class HeartbeatHandler extends ChannelDuplexHandler {
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.WRITER_IDLE) {
+                ctx.writeAndFlush(heartbeatMessage(ctx));
+            } else {
+                super.userEventTriggered(ctx, evt);
+            }
+        }
+    }
+}
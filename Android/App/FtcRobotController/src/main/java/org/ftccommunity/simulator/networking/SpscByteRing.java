@@ -0,0 +1,223 @@
+package org.ftccommunity.simulator.networking;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A fixed size, lock-free byte ring for exactly one producer thread and one consumer thread, such
+ * as the network thread filling a device's read queue while the FTDI reader thread empties it.
+ * <p>
+ * The producer only writes {@code tail} and the consumer only writes {@code head}. Each side
+ * copies its bytes first and then publishes the new index with an ordered store (lazySet); the
+ * other side reads that index with a volatile load before touching the bytes, so everything copied
+ * before the store is visible after the load. Neither side ever waits on the other: a full ring
+ * makes {@link #offer} return false and an empty one makes {@link #poll} return 0.
+ * <p>
+ * head and tail are kept on separate cache lines (with each side's cached copy of the other's
+ * index next to its own) so the two threads don't false-share. Indices are free running longs;
+ * the slot is {@code index & mask}.
+ * <p>
+ * Several producer threads are fine as long as they are serialized by a lock (the lock release and
+ * acquire carry the visibility from one producer to the next), and the same goes for consumers.
+ */
+public final class SpscByteRing extends SpscByteRingFields {
+    private final byte[] buffer;
+    private final int mask;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public SpscByteRing(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        buffer = new byte[size];
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Number of bytes waiting. Exact when called by the producer or the consumer, a snapshot
+     * otherwise.
+     */
+    public int size() {
+        // Read head first: tail can only grow in between, so the result is never negative
+        long h = head;
+        long t = tail;
+        return (int) (t - h);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Producer side
+
+    /**
+     * Add all of {@code src[off..off+len)} or nothing.
+     *
+     * @return false if there isn't room for all {@code len} bytes right now
+     */
+    public boolean offer(byte[] src, int off, int len) {
+        if (off < 0 || len < 0 || off + len > src.length) {
+            throw new IndexOutOfBoundsException("off " + off + " len " + len + " length " + src.length);
+        }
+        if (len > buffer.length) {
+            throw new IllegalArgumentException("offer of " + len + " bytes exceeds capacity " + buffer.length);
+        }
+
+        final long t = tail;
+        if (t + len - headCache > buffer.length) {
+            headCache = head;  // volatile read, only when the cached view says we're full
+            if (t + len - headCache > buffer.length) return false;
+        }
+
+        int index = (int) t & mask;
+        int n1 = Math.min(len, buffer.length - index);
+        System.arraycopy(src, off, buffer, index, n1);
+        System.arraycopy(src, off + n1, buffer, 0, len - n1);
+
+        TAIL.lazySet(this, t + len);
+        return true;
+    }
+
+    /**
+     * Add the next {@code len} readable bytes of {@code src} or nothing. On success the bytes are
+     * consumed from {@code src}.
+     *
+     * @return false if there isn't room for all {@code len} bytes right now
+     */
+    public boolean offer(ByteBuf src, int len) {
+        if (len < 0 || len > src.readableBytes()) {
+            throw new IndexOutOfBoundsException("len " + len + " readable " + src.readableBytes());
+        }
+        if (len > buffer.length) {
+            throw new IllegalArgumentException("offer of " + len + " bytes exceeds capacity " + buffer.length);
+        }
+
+        final long t = tail;
+        if (t + len - headCache > buffer.length) {
+            headCache = head;
+            if (t + len - headCache > buffer.length) return false;
+        }
+
+        int index = (int) t & mask;
+        int n1 = Math.min(len, buffer.length - index);
+        src.readBytes(buffer, index, n1);
+        src.readBytes(buffer, 0, len - n1);
+
+        TAIL.lazySet(this, t + len);
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Consumer side
+
+    /**
+     * Remove up to {@code len} bytes into {@code dst[off..)}.
+     *
+     * @return the number of bytes removed, 0 if the ring is empty
+     */
+    public int poll(byte[] dst, int off, int len) {
+        if (off < 0 || len < 0 || off + len > dst.length) {
+            throw new IndexOutOfBoundsException("off " + off + " len " + len + " length " + dst.length);
+        }
+
+        final long h = head;
+        if (tailCache - h < len) {
+            tailCache = tail;  // volatile read, only when the cached view has too little
+        }
+        int n = (int) Math.min(len, tailCache - h);
+        if (n <= 0) return 0;
+
+        int index = (int) h & mask;
+        int n1 = Math.min(n, buffer.length - index);
+        System.arraycopy(buffer, index, dst, off, n1);
+        System.arraycopy(buffer, 0, dst, off + n1, n - n1);
+
+        HEAD.lazySet(this, h + n);
+        return n;
+    }
+
+    /**
+     * Remove up to {@code len} bytes, appending them to {@code dst}.
+     *
+     * @return the number of bytes removed, 0 if the ring is empty
+     */
+    public int poll(ByteBuf dst, int len) {
+        final long h = head;
+        if (tailCache - h < len) {
+            tailCache = tail;
+        }
+        int n = (int) Math.min(len, tailCache - h);
+        if (n <= 0) return 0;
+
+        int index = (int) h & mask;
+        int n1 = Math.min(n, buffer.length - index);
+        dst.writeBytes(buffer, index, n1);
+        dst.writeBytes(buffer, 0, n - n1);
+
+        HEAD.lazySet(this, h + n);
+        return n;
+    }
+
+    /**
+     * Drop up to {@code len} bytes without copying them.
+     *
+     * @return the number of bytes dropped
+     */
+    public int skip(int len) {
+        final long h = head;
+        if (tailCache - h < len) {
+            tailCache = tail;
+        }
+        int n = (int) Math.min(len, tailCache - h);
+        if (n <= 0) return 0;
+        HEAD.lazySet(this, h + n);
+        return n;
+    }
+
+    /**
+     * Drop everything waiting. Consumer side only.
+     */
+    public void clear() {
+        HEAD.lazySet(this, tail);
+    }
+}
+
+/*
+ * Field layout for SpscByteRing. The JVM lays out superclass fields first, so the padding classes
+ * keep head (with the consumer's cached tail) and tail (with the producer's cached head) at least
+ * one 64 byte cache line apart from each other and from neighbouring objects.
+ */
+abstract class SpscByteRingPad0 {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class SpscByteRingHead extends SpscByteRingPad0 {
+    protected volatile long head;
+    protected long tailCache;       // consumer's last view of tail
+}
+
+abstract class SpscByteRingPad1 extends SpscByteRingHead {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class SpscByteRingTail extends SpscByteRingPad1 {
+    protected volatile long tail;
+    protected long headCache;       // producer's last view of head
+}
+
+abstract class SpscByteRingFields extends SpscByteRingTail {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+
+    static final AtomicLongFieldUpdater<SpscByteRingHead> HEAD =
+            AtomicLongFieldUpdater.newUpdater(SpscByteRingHead.class, "head");
+    static final AtomicLongFieldUpdater<SpscByteRingTail> TAIL =
+            AtomicLongFieldUpdater.newUpdater(SpscByteRingTail.class, "tail");
+}
@@ -17,19 +17,17 @@ package org.ftccommunity.simulator.networking;/*
 import com.qualcomm.ftccommon.configuration.FtcConfigurationActivity;
 import com.qualcomm.robotcore.util.RobotLog;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
@@ -48,7 +46,7 @@ import io.netty.handler.logging.LoggingHandler;
  */
 public final class TelnetClient implements Runnable {
     private static final String HOST = System.getProperty("host", "127.0.0.1");
-    private static final int PORT = 8023;
+    public static final int PORT = 8023;
     private static TelnetClient instance;
     private boolean isRunning = false;
 
@@ -63,6 +61,8 @@ public final class TelnetClient implements Runnable {
             b.group(bossGroup, workerGroup)
                     .channel(NioServerSocketChannel.class)
                     .handler(new LoggingHandler(LogLevel.INFO))
+                    // Per client backpressure: above the high mark a client is skipped, see SimulatorClients
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(32 * 1024, 64 * 1024))
                     .childHandler(new TelnetServerInitializer());
 
             // Start the connection attempt.
@@ -77,49 +77,6 @@ public final class TelnetClient implements Runnable {
         }
     }
 
-    public static class SimulatorWriteService implements Runnable {
-        public void run() {
-            while (!Thread.currentThread().isInterrupted()) {
-                while (TelnetServerInitializer.SERVER_HANDLER.context == null) { // wait for a context to show up
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        return;
-                    }
-                }
-                try {
-                    // Server is now active
-                    RobotLog.i("[SIM-net] Found client");
-                    while (!Thread.currentThread().isInterrupted()) {
-                        final ChannelHandlerContext context = TelnetServerInitializer.SERVER_HANDLER.context;
-                        final ArrayList<SimulatorConnection.SimulatorDeviceHandle> handles = Collections.list(SimulatorConnection.handles());
-                        for (SimulatorConnection.SimulatorDeviceHandle handle : handles) {
-                            if (handle.isLocked) continue;
-
-                            if (handle.writeUpdate) {
-                                synchronized (handle.lock) {
-                                    final String writeMsg = handle.id + ":" + Arrays.toString(handle.writeQueue.backing());
-                                    RobotLog.d("[SIM] writing " + writeMsg);
-                                    context.write(writeMsg + "\r\n");
-                                    handle.writeQueue.empty(); // remove all elements
-                                    handle.writeUpdate = false;
-                                }
-                            }
-                        } // for handles
-
-                        // temp test code
-                        Thread.sleep(500);
-                        context.write("BEAT\r\n");
-                        context.flush();
-                    }
-                } catch (Exception ex) {
-                    RobotLog.e("[SIM-net] " + ex.getMessage(), ex);
-                }
-            }
-        }
-    }
-
     public static TelnetClient instance() {
         if (instance == null) {
             instance = new TelnetClient();
@@ -137,23 +94,13 @@ public final class TelnetClient implements Runnable {
      */
     @ChannelHandler.Sharable
     public static class TelnetServerHandler extends SimpleChannelInboundHandler<String> {
-        private ChannelHandlerContext context;
-
         @Override
         public void channelActive(ChannelHandlerContext ctx) throws Exception {
             // Send greeting for a new connection.
-            if (context == null) {
-                ctx.write("BEGIN FTCSIMP-" + SimulatorConnection.VERSION + "\r\n" +
-                        "REQUIRE DEVICEL\r\n");
-                ctx.flush();
-                context = ctx;
-            } else {
-                ctx.write("BEGIN FTCSIMP-" + SimulatorConnection.VERSION + "\r\n" +
-                        "ERR TOO MANY CLIENTS\r\n" +
-                        "DISCON\r\n")
-                        .addListener(ChannelFutureListener.CLOSE);
-                ctx.flush();
-            }
+            ctx.write("BEGIN FTCSIMP-" + SimulatorConnection.VERSION + "\r\n" +
+                    "REQUIRE DEVICEL\r\n");
+            ctx.flush();
+            SimulatorClients.attach(ctx.channel());
         }
 
         @Override
@@ -168,6 +115,25 @@ public final class TelnetClient implements Runnable {
                 close = true;
             } else if ("RESTART".equals(request)) {
                 response = "DISCON\r\n";
+            } else if (SimulatorProtocol.SWITCH_TO_BINARY.equals(request)) {
+                // The OK goes out with the switch
+                SimulatorProtocol.switchToBinary(ctx.channel());
+                return;
+            } else if (request.startsWith("SUB ") || request.startsWith("UNSUB ")) {
+                final boolean subscribe = request.startsWith("SUB ");
+                final String id = request.substring(request.indexOf(' ') + 1).trim();
+                response = SimulatorClients.subscribe(ctx.channel(), subscribe, id) ?
+                        "OK " + request + "\r\n" : "ERR BAD SUBSCRIPTION\r\n";
+            } else if (request.indexOf(':') > 0) {
+                // Data for a device: "id:[b0, b1, ...]"
+                final int idPos = request.indexOf(':');
+                final String id = request.substring(0, idPos);
+                final String[] data = request.substring(idPos + 1).replace("[", "").replace("]", "").split(",");
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = data[i].trim();
+                }
+                SimulatorConnection.readInData(id, data);
+                response = "RECV '" + request + "'\r\n";
             } else {
                 response = "RECV '" + request + "'\r\n";
             }
@@ -180,7 +146,7 @@ public final class TelnetClient implements Runnable {
             // if the client has sent 'bye'.
             if (close) {
                 future.addListener(ChannelFutureListener.CLOSE);
-                context = null;
+                SimulatorClients.detach(ctx.channel());
             }
         }
 
@@ -193,11 +159,19 @@ public final class TelnetClient implements Runnable {
         public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
             cause.printStackTrace();
             ctx.close();
-            context = null;
+            SimulatorClients.detach(ctx.channel());
         }
 
-        public ChannelHandlerContext context() {
-            return context;
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            // Anything put off while this client was backed up can go out now
+            if (ctx.channel().isWritable()) SimulatorClients.scheduleFlush();
+            super.channelWritabilityChanged(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            SimulatorClients.detach(ctx.channel());
         }
     }
 
@@ -236,14 +210,16 @@ public final class TelnetClient implements Runnable {
         public void initChannel(SocketChannel ch) {
             ChannelPipeline pipeline = ch.pipeline();
 
-
-            // Add the text line codec combination first,
-            pipeline.addLast(new DelimiterBasedFrameDecoder(8192, Delimiters.lineDelimiter()));
-            pipeline.addLast(DECODER);
-            pipeline.addLast(ENCODER);
+            // Add the text line codec combination first, named so SimulatorProtocol can swap
+            // them out if the client switches to binary,
+            pipeline.addLast(SimulatorProtocol.FRAMER, new DelimiterBasedFrameDecoder(8192, Delimiters.lineDelimiter()));
+            pipeline.addLast(SimulatorProtocol.STRING_DECODER, DECODER);
+            pipeline.addLast(SimulatorProtocol.STRING_ENCODER, ENCODER);
+            pipeline.addLast(SimulatorProtocol.FRAME_ENCODER, SimulatorProtocol.TEXT_FRAME_ENCODER);
+            SimulatorProtocol.addHeartbeat(pipeline);
 
             // and then business logic.
-            pipeline.addLast(SERVER_HANDLER);
+            pipeline.addLast(SimulatorProtocol.HANDLER, SERVER_HANDLER);
         }
     }
 
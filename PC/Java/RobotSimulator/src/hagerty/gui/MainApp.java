@@ -30,9 +30,8 @@ import hagerty.gui.view.RootLayoutController;
 import hagerty.simulator.RobotSimulator;
 import hagerty.simulator.modules.BrickListWrapper;
 import hagerty.simulator.modules.BrickSimulator;
+import hagerty.simulator.modules.DeviceInterfaceBrickSimulator;
 import hagerty.simulator.modules.LegacyBrickSimulator;
-import hagerty.simulator.modules.MotorBrickSimulator;
-import hagerty.simulator.modules.ServoBrickSimulator;
 
 public class MainApp extends Application {
 
@@ -41,9 +40,10 @@ public class MainApp extends Application {
     private BorderPane rootLayout;
 
     /**
-     * The data as an observable list of Controllers.
+     * The data as an observable list of Controllers.  The extractor makes edits to a brick show up
+     * as list changes too.
      */
-    private ObservableList<BrickSimulator> brickList = FXCollections.observableArrayList();
+    private ObservableList<BrickSimulator> brickList = FXCollections.observableArrayList(BrickSimulator.extractor());
 
     /**
      * Constructor
@@ -149,6 +149,8 @@ public class MainApp extends Application {
             FXMLLoader loader = new FXMLLoader();
             if (brick instanceof LegacyBrickSimulator)
             	loader.setLocation(MainApp.class.getResource("view/EditLegacyDialog.fxml"));
+            else if (brick instanceof DeviceInterfaceBrickSimulator)
+            	loader.setLocation(MainApp.class.getResource("view/EditDeviceInterfaceDialog.fxml"));
             else
             	loader.setLocation(MainApp.class.getResource("view/EditDialog.fxml"));
             AnchorPane page = (AnchorPane) loader.load();
@@ -320,8 +322,7 @@ public class MainApp extends Application {
      */
     public void loadBrickDataFromFile(File file) {
         try {
-            JAXBContext context = JAXBContext
-                    .newInstance(BrickListWrapper.class, LegacyBrickSimulator.class, MotorBrickSimulator.class, ServoBrickSimulator.class );
+            JAXBContext context = BrickListWrapper.getContext();
             Unmarshaller um = context.createUnmarshaller();
             try {
             // Reading XML from the file and unmarshalling to a Wrapper class that just contains a single List
@@ -365,7 +366,7 @@ public class MainApp extends Application {
      */
     public void saveBrickDataToFile(File file) {
         try {
-            JAXBContext context = JAXBContext.newInstance(BrickListWrapper.class, LegacyBrickSimulator.class, MotorBrickSimulator.class, ServoBrickSimulator.class );
+            JAXBContext context = BrickListWrapper.getContext();
             Marshaller m = context.createMarshaller();
             m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
 
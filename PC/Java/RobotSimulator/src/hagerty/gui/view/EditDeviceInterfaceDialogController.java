@@ -0,0 +1,142 @@
+package hagerty.gui.view;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import hagerty.simulator.legacy.data.SimDataType;
+import hagerty.simulator.modules.BrickSimulator;
+import hagerty.simulator.modules.DeviceInterfaceBrickSimulator;
+import javafx.collections.FXCollections;
+import javafx.fxml.FXML;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+import javafx.scene.image.Image;
+import javafx.scene.layout.GridPane;
+import javafx.stage.Stage;
+
+/**
+ * Dialog to edit details of a Device Interface Module, including what is plugged into each of its
+ * I2C ports, analog inputs and digital channels.
+ *
+ * @author Hagerty High
+ */
+public class EditDeviceInterfaceDialogController extends EditDialogController {
+
+    @FXML
+    private TextField brickNameField;
+    @FXML
+    private TextField brickIPAddressField;
+    @FXML
+    private TextField brickPortField;
+    @FXML
+    private TextField brickSerialField;
+
+    @FXML
+    private GridPane portGrid;
+
+    private List<ChoiceBox<SimDataType>> portChoiceBoxes = new ArrayList<ChoiceBox<SimDataType>>();
+    private TextField[] portNames = new TextField[DeviceInterfaceBrickSimulator.PORTS];
+
+    private Stage dialogStage;
+    private BrickSimulator brick;
+    private boolean okClicked = false;
+
+    /**
+     * Initializes the controller class. This method is automatically called
+     * after the fxml file has been loaded.
+     */
+    @FXML
+    private void initialize() {
+    	for (int i=0;i<DeviceInterfaceBrickSimulator.PORTS;i++) {
+    		ChoiceBox<SimDataType> choiceBox = new ChoiceBox<SimDataType>(FXCollections.observableArrayList(
+    				DeviceInterfaceBrickSimulator.getPortChoices(i)));
+
+    		choiceBox.getSelectionModel().selectFirst();
+    		portGrid.add(choiceBox, 1, i);
+    		portChoiceBoxes.add(choiceBox);
+
+    		portNames[i] = new TextField();
+    		portGrid.add(portNames[i], 2, i);
+
+    		Label portLabel = new Label();
+    		portLabel.setText(DeviceInterfaceBrickSimulator.getPortLabel(i));
+    		portGrid.add(portLabel, 0, i);
+
+    	}
+    }
+
+    /**
+     * Sets the stage of this dialog.
+     *
+     * @param dialogStage
+     */
+    public void setDialogStage(Stage dialogStage) {
+        this.dialogStage = dialogStage;
+
+        // Set the dialog icon.
+        this.dialogStage.getIcons().add(new Image("file:resources/images/edit.png"));
+    }
+
+    /**
+     * Sets the brick to be edited.
+     *
+     * @param brick
+     */
+    public void setBrick(BrickSimulator brick) {
+        this.brick = brick;
+    }
+
+    /**
+     * Sets the brick to be edited.
+     *
+     * @param brick
+     */
+    public void fillFieldsWithCurrentValues() {
+        brickNameField.setText(brick.getAlias());
+        brickPortField.setText(brick.getPort().toString());
+        brickSerialField.setText(brick.getSerial());
+
+        DeviceInterfaceBrickSimulator dim = (DeviceInterfaceBrickSimulator)brick;
+
+        for (int i=0;i<DeviceInterfaceBrickSimulator.PORTS;i++) {
+        	portChoiceBoxes.get(i).getSelectionModel().select(
+        			dim.getPortType()[i]);
+        	portNames[i].setText(dim.getPortName()[i]);
+    	}
+    }
+
+    /**
+     * Called when the user clicks ok.
+     */
+    @FXML
+    private void handleOk() {
+        if (super.isInputValid()) {
+            brick.setAlias(brickNameField.getText());
+            brick.setPort(Integer.parseInt(brickPortField.getText()));
+            brick.setSerial(brickSerialField.getText());
+
+            DeviceInterfaceBrickSimulator dim = (DeviceInterfaceBrickSimulator)brick;
+
+            for (int i=0;i<DeviceInterfaceBrickSimulator.PORTS;i++) {
+            	dim.getPortType()[i] = portChoiceBoxes.get(i).getSelectionModel().getSelectedItem();
+            	dim.getPortName()[i] = portNames[i].getText();
+        	}
+
+            dim.fixupUnMarshaling();
+
+            okClicked = true;
+            dialogStage.close();
+        }
+    }
+
+    /**
+     * Called when the user clicks cancel.
+     */
+    @FXML
+    private void handleCancel() {
+        dialogStage.close();
+    }
+
+
+}
\ No newline at end of file
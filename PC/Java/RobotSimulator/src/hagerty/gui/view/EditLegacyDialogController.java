@@ -49,7 +49,11 @@ public class EditLegacyDialogController extends EditDialogController {
     				SimDataType.NONE,
     				SimDataType.LEGACY_MOTOR,
     				SimDataType.LEGACY_LIGHT,
-    				SimDataType.LEGACY_TOUCH));
+    				SimDataType.LEGACY_TOUCH,
+    				SimDataType.LEGACY_GYRO,
+    				SimDataType.LEGACY_COMPASS,
+    				SimDataType.LEGACY_IR_SEEKER,
+    				SimDataType.LEGACY_ULTRASONIC));
 
     		legacyChoiceBoxes[i].getSelectionModel().selectFirst();
     		portGrid.add(legacyChoiceBoxes[i], 1, i);
@@ -1,6 +1,7 @@
 package hagerty.gui.view;
 
 import hagerty.simulator.modules.BrickSimulator;
+import hagerty.simulator.modules.DeviceInterfaceBrickSimulator;
 import hagerty.simulator.modules.LegacyBrickSimulator;
 import hagerty.simulator.modules.MotorBrickSimulator;
 import hagerty.simulator.modules.ServoBrickSimulator;
@@ -50,7 +51,8 @@ public class NewDialogController {
 
     @FXML
     public void initChoiceBox() {
-    	brickChoiceBox.setItems(FXCollections.observableArrayList("Core Legacy Module","Core Motor Controller","Core Servo Controller"));
+    	brickChoiceBox.setItems(FXCollections.observableArrayList("Core Legacy Module","Core Motor Controller","Core Servo Controller",
+    			"Core Device Interface Module"));
     	brickChoiceBox.getSelectionModel().selectFirst();
     }
 
@@ -89,6 +91,9 @@ public class NewDialogController {
         	case "Core Servo Controller":
         		brickHolder[0] = new ServoBrickSimulator();
         		break;
+        	case "Core Device Interface Module":
+        		brickHolder[0] = new DeviceInterfaceBrickSimulator();
+        		break;
         	}
 
             okClicked = true;
@@ -3,17 +3,15 @@ package hagerty.simulator;
 import hagerty.utils.*;
 import hagerty.simulator.modules.BrickListWrapper;
 import hagerty.simulator.modules.BrickSimulator;
-import hagerty.simulator.modules.LegacyBrickSimulator;
-import hagerty.simulator.modules.MotorBrickSimulator;
-import hagerty.simulator.modules.ServoBrickSimulator;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.util.List;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 
@@ -27,6 +25,15 @@ public class BrickListGenerator implements Runnable {
 
     hagerty.gui.MainApp mMainApp;
 
+    // The serialized module lists sent in reply to '?' (XML) and '?' 'B' (binary fragments).  Rebuilt
+    // on the first request after the brick list changes; mListRevision counts changes so a list
+    // built while one happens isn't kept.
+    private volatile byte[] mModuleList;
+    private volatile List<byte[]> mBinaryModuleList;
+    private volatile int mListRevision = 0;
+    private int mModuleListRevision = -1;
+    private int mBinaryModuleListRevision = -1;
+
     /** Default Constructor.
      *
      */
@@ -34,6 +41,15 @@ public class BrickListGenerator implements Runnable {
 
     	mMainApp = mainApp;
 
+    	mMainApp.getBrickData().addListener(new ListChangeListener<BrickSimulator>() {
+    		@Override
+    		public void onChanged(ListChangeListener.Change<? extends BrickSimulator> c) {
+    			mListRevision++;
+    			mModuleList = null;
+    			mBinaryModuleList = null;
+    		}
+    	});
+
         try {
         	mServerSocket = new DatagramSocket(7000);
         } catch (IOException e) {
@@ -106,15 +122,51 @@ public class BrickListGenerator implements Runnable {
     	System.out.println("Receive Buffer: (" + Utils.bufferToHexString(data,0,25) + ") len=" + data.length);
 
     	if (data[0] == '?') { // infoCmd
-    		sendPacketToPhone(getXmlModuleList(mMainApp.getBrickData()));
+    		if (length >= 3 && data[1] == ModuleEnumeration.REQUEST_BINARY && data[2] >= ModuleEnumeration.VERSION) {
+    			for (byte[] fragment : getBinaryModuleList()) {
+    				sendPacketToPhone(fragment);
+    			}
+    		} else {
+    			sendPacketToPhone(getModuleList());
+    		}
         }
     }
 
+    /**
+     * The cached binary module list, see ModuleEnumeration.
+     */
+    private List<byte[]> getBinaryModuleList() {
+    	List<byte[]> moduleList = mBinaryModuleList;
+    	int revision = mListRevision;
+    	if (moduleList != null && revision == mBinaryModuleListRevision) return moduleList;
+
+    	moduleList = ModuleEnumeration.encode(mMainApp.getBrickData(), revision);
+    	if (revision == mListRevision) {
+    		mBinaryModuleListRevision = revision;
+    		mBinaryModuleList = moduleList;
+    	}
+    	return moduleList;
+    }
+
+    /**
+     * The cached module list, serialized again only if the brick list changed since the last request.
+     */
+    private byte[] getModuleList() {
+    	byte[] moduleList = mModuleList;
+    	int revision = mListRevision;
+    	if (moduleList != null && revision == mModuleListRevision) return moduleList;
+
+    	moduleList = getXmlModuleList(mMainApp.getBrickData());
+    	if (moduleList != null && revision == mListRevision) {
+    		mModuleListRevision = revision;
+    		mModuleList = moduleList;
+    	}
+    	return moduleList;
+    }
+
     private byte[] getXmlModuleList(ObservableList<BrickSimulator> mBrickList) {
     	try {
-	    	JAXBContext context = JAXBContext.newInstance(BrickListWrapper.class, LegacyBrickSimulator.class, MotorBrickSimulator.class, ServoBrickSimulator.class );
-	        Marshaller m = context.createMarshaller();
-	        m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+	        Marshaller m = BrickListWrapper.getContext().createMarshaller();
 
 	        // Wrapping our controller data.
 	        BrickListWrapper wrapper = new BrickListWrapper();
@@ -0,0 +1,109 @@
+package hagerty.simulator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import hagerty.simulator.modules.BrickSimulator;
+
+/**
+ * Serves every configured brick port from a single event-loop thread.
+ *
+ * Each brick gets a non-blocking DatagramChannel bound to its port, and all of the channels
+ * are registered with one Selector.  When a packet shows up the brick's handleIncomingPacket
+ * is called from this loop, so 10+ simulated controllers no longer need 10+ blocked threads.
+ *
+ * @author Hagerty High
+ */
+public class BrickReactor implements Runnable {
+
+    private static final int SELECT_TIMEOUT_MS = 250;
+
+    private final Selector mSelector;
+    private final List<DatagramChannel> mChannels = new ArrayList<DatagramChannel>();
+
+    /**
+     * Open and register a channel for each brick.
+     *
+     * @param brickList the bricks to serve
+     * @throws IOException if the selector can't be opened
+     */
+    public BrickReactor(List<BrickSimulator> brickList) throws IOException {
+        mSelector = Selector.open();
+
+        for (BrickSimulator brick : brickList) {
+            try {
+                DatagramChannel channel = DatagramChannel.open();
+                channel.socket().bind(new InetSocketAddress(brick.getPort()));
+                channel.configureBlocking(false);
+                channel.register(mSelector, SelectionKey.OP_READ, brick);
+                brick.attachChannel(channel);
+                mChannels.add(channel);
+                System.out.println(brick.getAlias() + " " + brick.getName() + " on port " + brick.getPort());
+            } catch (IOException e) {
+                System.out.println("Failed to open port " + brick.getPort() + " for " + brick.getAlias());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (RobotSimulator.gThreadsAreRunning) {
+                // Wake up now and then so a shutdown request is noticed
+                if (mSelector.select(SELECT_TIMEOUT_MS) == 0) continue;
+
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid() || !key.isReadable()) continue;
+
+                    drainChannel((BrickSimulator) key.attachment());
+                }
+            }
+        // Catch unhandled exceptions and cleanup
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Handle every datagram that is waiting on this channel so one busy brick can't starve the others
+     * of a select() pass.  The brick receives into its own pooled buffers.
+     */
+    private void drainChannel(BrickSimulator brick) {
+        while (true) {
+            try {
+                if (!brick.receivePacketFromPhone()) return;  // nothing left to read
+            } catch (Exception e) {
+                // One misbehaving brick must not take the others down with it
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void close() {
+        for (DatagramChannel channel : mChannels) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                System.out.println("An error occurred while closing!");
+                ex.printStackTrace();
+            }
+        }
+        try {
+            mSelector.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+}
@@ -1,15 +1,18 @@
 package hagerty.simulator;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import coppelia.IntW;
 import coppelia.IntWA;
 import coppelia.remoteApi;
 import hagerty.simulator.legacy.data.LegacyMotorSimData;
 import hagerty.simulator.legacy.data.SimData;
+import hagerty.simulator.legacy.data.UsbServoSimData;
 import hagerty.simulator.modules.BrickSimulator;
 
-public class CoppeliaApiClient implements Runnable {
+public class CoppeliaApiClient implements PhysicsBackend {
 
 	long mStartTime;
 	IntWA mObjectHandles;
@@ -19,10 +22,37 @@ public class CoppeliaApiClient implements Runnable {
 	remoteApi mVrep;
 	hagerty.gui.MainApp mMainApp;
 
+	final FixedRateTicker mTicker = FixedRateTicker.fromSystemProperties();
+	volatile boolean mStopped = false;
+	LegacyMotorSimData mWheels;
+	LegacyMotorSimData.MotorSnapshot mLastMotors;
+
+	VrepCommandBatch mBatch;
+	VrepCommandBatch.JointPosition mLeftWheelAngle;
+	VrepCommandBatch.JointPosition mRightWheelAngle;
+
+	// Optional servo controller named "Servos", driving joints "Servo1".."Servo6" over +-90 degrees
+	static final float SERVO_RANGE_RADIANS = (float)Math.PI;
+	UsbServoSimData mServos;
+	final int[] mServoJoints = new int[UsbServoSimData.CHANNELS];
+	final float[] mLastServoAngles = new float[UsbServoSimData.CHANNELS];
+
 	public CoppeliaApiClient(hagerty.gui.MainApp mainApp) {
 		mMainApp = mainApp;
 	}
 
+	@Override
+	public String getName() {
+		return "V-REP";
+	}
+
+	@Override
+	public void stop() {
+		mStopped = true;
+		mTicker.stop();
+	}
+
+	@Override
 	public boolean init() {
 
 		mVrep = new remoteApi();
@@ -55,6 +85,18 @@ public class CoppeliaApiClient implements Runnable {
 			mVrep.simxGetObjectHandle(mClientID,"remoteApiControlledBubbleRobRightMotor",mRightMotor,remoteApi.simx_opmode_oneshot_wait);
 			System.out.println("Left = " + mLeftMotor.getValue() + " Right = " + mRightMotor.getValue());
 
+			IntW servoJoint = new IntW(0);
+			for (int channel=0;channel<UsbServoSimData.CHANNELS;channel++) {
+				ret = mVrep.simxGetObjectHandle(mClientID,"Servo" + (channel+1),servoJoint,remoteApi.simx_opmode_oneshot_wait);
+				mServoJoints[channel] = ret == remoteApi.simx_return_ok ? servoJoint.getValue() : -1;
+				mLastServoAngles[channel] = Float.NaN;
+			}
+
+			// Writes made during a tick go out in one message, wheel angles are streamed back to us
+			mBatch = new VrepCommandBatch(mVrep, mClientID);
+			mLeftWheelAngle = mBatch.subscribeJointPosition(mLeftMotor.getValue());
+			mRightWheelAngle = mBatch.subscribeJointPosition(mRightMotor.getValue());
+
 			mStartTime=System.currentTimeMillis();
 			return true;
 
@@ -69,10 +111,6 @@ public class CoppeliaApiClient implements Runnable {
     @Override
     public void run()
 	{
-		boolean done=false;
-		float leftMotorSpeed=0;
-		float rightMotorSpeed=0;
-
 		/*
 		 * Read the current list of modules from the GUI MainApp class
 		 */
@@ -85,24 +123,47 @@ public class CoppeliaApiClient implements Runnable {
 
         if (simData == null) {
         	System.out.println("Failed to find a module name 'Wheels'");
-        	done = true;
+        } else {
+        	mWheels = (LegacyMotorSimData)simData;
+
+        	for (BrickSimulator currentBrick : brickList) {
+        		SimData servos = currentBrick.findSimDataName("Servos");
+        		if (servos instanceof UsbServoSimData) {
+        			mServos = (UsbServoSimData)servos;
+        			break;
+        		}
+        	}
+
+        	SimulationClock clock = RobotSimulator.getClock();
+        	if (clock.isLockstep()) {
+        		// V-REP runs in synchronous mode and takes one simulation step per phone cycle.  The
+        		// scene's time step should match -Dsimulator.lockstepQuantumMs.
+        		System.out.println("Visualizer in lockstep with the phone");
+        		mVrep.simxSynchronous(mClientID, true);
+        		SimulationClock.Listener listener = new SimulationClock.Listener() {
+        			public void onAdvance(long nowNanos, long quantumNanos) {
+        				tick();
+        				mVrep.simxSynchronousTrigger(mClientID);
+        			}
+        		};
+        		clock.addListener(listener);
+        		while (!mStopped && RobotSimulator.gThreadsAreRunning) {
+        			LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(250));
+        		}
+        		clock.removeListener(listener);
+        		mVrep.simxSynchronous(mClientID, false);
+        	} else {
+        		System.out.println("Visualizer ticking at " + mTicker.getRateHz() + " Hz");
+        		mTicker.run(new Runnable() {
+        			public void run() {
+        				tick();
+        			}
+        		});
+        	}
+        	System.out.println("Visualizer stopped, " + mTicker + ", " + mBatch.getCommandsSent()
+        			+ " commands in " + mBatch.getMessagesSent() + " messages");
         }
 
-		while (!done)
-		{
-			simData.lock.readLock().lock();
-	        try {
-	            leftMotorSpeed = ((LegacyMotorSimData)simData).getMotor1Speed() * 3.14f;
-	            rightMotorSpeed = ((LegacyMotorSimData)simData).getMotor2Speed() * 3.14f;
-	        } finally {
-	        	simData.lock.readLock().unlock();
-	        }
-
-			mVrep.simxSetJointTargetVelocity(mClientID,mLeftMotor.getValue(),-leftMotorSpeed,remoteApi.simx_opmode_oneshot);
-			mVrep.simxSetJointTargetVelocity(mClientID,mRightMotor.getValue(),rightMotorSpeed,remoteApi.simx_opmode_oneshot);
-		}
-
-
 		// Before closing the connection to V-REP, make sure that the last command sent out had time to arrive. You can guarantee this with (for example):
 		IntW pingTime = new IntW(0);
 		mVrep.simxGetPingTime(mClientID,pingTime);
@@ -110,5 +171,60 @@ public class CoppeliaApiClient implements Runnable {
 		// Now close the connection to V-REP:
 		mVrep.simxFinish(mClientID);
 	}
-}
 
+    /**
+     * One physics tick.  Picks up the streamed sensor values, then sends all of this tick's writes to
+     * V-REP in one message.  Nothing is sent when the motor speeds haven't changed.
+     */
+    void tick() {
+    	mBatch.readSensors();
+
+		// One volatile read gives a consistent view of both motors.  The snapshot object is only
+		// replaced when something changes, so comparing references is enough.
+		LegacyMotorSimData.MotorSnapshot motors = mWheels.snapshot();
+		if (motors != mLastMotors) {
+			mLastMotors = motors;
+
+			float leftMotorSpeed = motors.motor1Speed * 3.14f;
+			float rightMotorSpeed = motors.motor2Speed * 3.14f;
+
+			mBatch.setJointTargetVelocity(mLeftMotor.getValue(), -leftMotorSpeed);
+			mBatch.setJointTargetVelocity(mRightMotor.getValue(), rightMotorSpeed);
+		}
+
+		if (mServos != null) tickServos();
+
+		mBatch.flush();
+    }
+
+    /**
+     * Move the servo joints to where the simulated servos are now.  A servo that hasn't moved since
+     * the last tick, or isn't powered, costs nothing.
+     */
+    void tickServos() {
+    	UsbServoSimData.ServoSnapshot servos = mServos.snapshot();
+    	if (!servos.pwmEnabled) return;
+    	long now = RobotSimulator.getClock().nanoTime();
+    	for (int channel=0;channel<UsbServoSimData.CHANNELS;channel++) {
+    		if (mServoJoints[channel] < 0) continue;
+    		float angle = (float)((servos.position(channel, now) - 0.5) * SERVO_RANGE_RADIANS);
+    		if (angle == mLastServoAngles[channel]) continue;
+    		mLastServoAngles[channel] = angle;
+    		mBatch.setJointTargetPosition(mServoJoints[channel], angle);
+    	}
+    }
+
+    /** Left wheel joint angle in radians, as streamed from V-REP. */
+    public float getLeftWheelAngle() {
+    	return mLeftWheelAngle.get();
+    }
+
+    /** Right wheel joint angle in radians, as streamed from V-REP. */
+    public float getRightWheelAngle() {
+    	return mRightWheelAngle.get();
+    }
+
+    public FixedRateTicker getTicker() {
+    	return mTicker;
+    }
+}
@@ -0,0 +1,286 @@
+package hagerty.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import hagerty.simulator.legacy.data.LegacyCompassSimData;
+import hagerty.simulator.legacy.data.LegacyGyroSimData;
+import hagerty.simulator.legacy.data.LegacyIrSeekerSimData;
+import hagerty.simulator.legacy.data.LegacyLightSimData;
+import hagerty.simulator.legacy.data.LegacyMotorSimData;
+import hagerty.simulator.legacy.data.LegacyTouchSimData;
+import hagerty.simulator.legacy.data.LegacyUltrasonicSimData;
+import hagerty.simulator.legacy.data.SimData;
+import hagerty.simulator.modules.BrickSimulator;
+import hagerty.simulator.modules.LegacyBrickSimulator;
+
+/**
+ * A pure Java physics backend for a two wheeled (or tank drive) robot, so the simulator can run on
+ * a plain Linux box without V-REP or its native remote API library.
+ *
+ * Motor 1 of the "Wheels" motor controller drives the left side and motor 2 the right side.  Each
+ * side is modelled as a DC motor with a first order response, and the robot pose is integrated
+ * with a fixed timestep.  Wheel encoder counts are written back into the motor controller so the
+ * phone can read them.
+ *
+ * Sensors on the legacy modules are fed from the pose after every step, using a simple field: a
+ * square walled arena centered on the robot's starting point, an IR beacon in the middle of the wall
+ * the robot starts facing, and a strip of white tape across the floor.  Compass north is the robot's
+ * initial forward direction.  The robot drives through the walls; nothing here collides.
+ *
+ * By default a step is taken every timestep of wall clock time.  With
+ * -Dsimulator.headless.realTime=false the steps run back to back, as fast as the CPU allows.  When
+ * the simulation clock is in lockstep mode the model is instead stepped by the clock, one quantum's
+ * worth of steps per phone read/write cycle.
+ *
+ * @author Hagerty High
+ */
+public class DifferentialDrivePhysics implements PhysicsBackend {
+
+	// Robot model.  Defaults are close to a 4" wheeled Tetrix robot.
+	public static final double STEP_SECONDS = 0.005;           // 200 Hz
+	public static final double WHEEL_RADIUS_M = 0.0508;
+	public static final double TRACK_WIDTH_M = 0.38;
+	public static final double MAX_WHEEL_RAD_PER_S = 15.7;     // ~150 rpm at full power
+	public static final double MOTOR_TIME_CONSTANT_S = 0.08;   // driven or braking
+	public static final double COAST_TIME_CONSTANT_S = 0.5;    // float mode
+	public static final double ENCODER_COUNTS_PER_REV = 1440;  // Tetrix encoders
+	public static final double BUMPER_M = 0.23;                // center to front, where the touch and ultrasonic sensors are
+
+	// Field model for the legacy sensors
+	public static final double FIELD_HALF_WIDTH_M = 1.83;      // 12 ft square
+	public static final double BEACON_X_M = FIELD_HALF_WIDTH_M;
+	public static final double BEACON_Y_M = 0.0;
+	public static final double BEACON_RANGE_M = 4.0;           // full strength at the beacon, none this far away
+	public static final double LINE_X_M = 0.6;                 // the tape runs along y at this x
+	public static final double LINE_WIDTH_M = 0.05;
+	public static final double FLOOR_LIGHT = 0.2;              // as the light sensor reports it
+	public static final double LINE_LIGHT = 0.8;
+
+	/**
+	 * Pose and encoder data as of the end of a step.  Immutable, a new one is published every step.
+	 */
+	public static final class State {
+		public final double timeSeconds;
+		public final double x;           // meters, +x is the robot's initial forward direction
+		public final double y;           // meters, +y is to the robot's initial left
+		public final double heading;     // radians, counter clockwise
+		public final int leftEncoder;
+		public final int rightEncoder;
+
+		State(double timeSeconds, double x, double y, double heading, int leftEncoder, int rightEncoder) {
+			this.timeSeconds = timeSeconds;
+			this.x = x;
+			this.y = y;
+			this.heading = heading;
+			this.leftEncoder = leftEncoder;
+			this.rightEncoder = rightEncoder;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("t=%.3f x=%.3f y=%.3f heading=%.1f deg encoders=%d/%d",
+					timeSeconds, x, y, Math.toDegrees(heading), leftEncoder, rightEncoder);
+		}
+	}
+
+	private final hagerty.gui.MainApp mMainApp;
+	private final boolean mRealTime = !"false".equals(System.getProperty("simulator.headless.realTime"));
+	private final FixedRateTicker mTicker = new FixedRateTicker((int) Math.round(1.0 / STEP_SECONDS));
+	private volatile boolean mStopped = false;
+
+	private LegacyMotorSimData mWheels;
+	private final List<SimData> mSensors = new ArrayList<SimData>();
+
+	// Integrator state, owned by the stepping thread
+	private double mTime;
+	private double mX, mY, mHeading;
+	private double mLeftWheelSpeed, mRightWheelSpeed;   // rad/s
+	private double mLeftWheelAngle, mRightWheelAngle;   // rad
+
+	private double mUnsteppedSeconds;                    // lockstep time not yet stepped
+
+	private volatile State mState = new State(0, 0, 0, 0, 0, 0);
+
+	public DifferentialDrivePhysics(hagerty.gui.MainApp mainApp) {
+		mMainApp = mainApp;
+	}
+
+	@Override
+	public String getName() {
+		return "Headless differential drive";
+	}
+
+	@Override
+	public boolean init() {
+		SimData simData = null;
+		List<BrickSimulator> brickList = mMainApp.getBrickData();
+		for (BrickSimulator currentBrick : brickList) {
+			simData = currentBrick.findSimDataName("Wheels");
+			if (simData != null) break;
+		}
+
+		if (!(simData instanceof LegacyMotorSimData)) {
+			System.out.println("Failed to find a motor controller named 'Wheels'");
+			return false;
+		}
+		mWheels = (LegacyMotorSimData) simData;
+
+		mSensors.clear();
+		for (BrickSimulator currentBrick : brickList) {
+			if (!(currentBrick instanceof LegacyBrickSimulator)) continue;
+			for (SimData port : ((LegacyBrickSimulator) currentBrick).getPortSimData()) {
+				if (port != null && !(port instanceof LegacyMotorSimData)) mSensors.add(port);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void run() {
+		Runnable step = new Runnable() {
+			public void run() {
+				step(STEP_SECONDS);
+			}
+		};
+
+		SimulationClock clock = RobotSimulator.getClock();
+		if (clock.isLockstep()) {
+			SimulationClock.Listener listener = new SimulationClock.Listener() {
+				public void onAdvance(long nowNanos, long quantumNanos) {
+					advance(quantumNanos / 1e9);
+				}
+			};
+			clock.addListener(listener);
+			while (!mStopped && RobotSimulator.gThreadsAreRunning) {
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(250));
+			}
+			clock.removeListener(listener);
+		} else if (mRealTime) {
+			mTicker.run(step);
+		} else {
+			while (!mStopped && RobotSimulator.gThreadsAreRunning) {
+				step.run();
+			}
+		}
+		System.out.println(getName() + " stopped at " + mState);
+	}
+
+	@Override
+	public void stop() {
+		mStopped = true;
+		mTicker.stop();
+	}
+
+	/**
+	 * Take as many fixed steps as fit in the given time, carrying the remainder over to the next call.
+	 */
+	void advance(double seconds) {
+		mUnsteppedSeconds += seconds;
+		while (mUnsteppedSeconds >= STEP_SECONDS - 1e-9) {
+			step(STEP_SECONDS);
+			mUnsteppedSeconds -= STEP_SECONDS;
+		}
+	}
+
+	/**
+	 * Advance the model by dt seconds.
+	 */
+	void step(double dt) {
+		LegacyMotorSimData.MotorSnapshot motors = mWheels.snapshot();
+
+		mLeftWheelSpeed = motorResponse(mLeftWheelSpeed, motors.motor1Speed, motors.motor1FloatMode, dt);
+		mRightWheelSpeed = motorResponse(mRightWheelSpeed, motors.motor2Speed, motors.motor2FloatMode, dt);
+		mLeftWheelAngle += mLeftWheelSpeed * dt;
+		mRightWheelAngle += mRightWheelSpeed * dt;
+
+		// Differential drive kinematics, integrated at the midpoint heading
+		double vLeft = mLeftWheelSpeed * WHEEL_RADIUS_M;
+		double vRight = mRightWheelSpeed * WHEEL_RADIUS_M;
+		double v = (vLeft + vRight) / 2.0;
+		double w = (vRight - vLeft) / TRACK_WIDTH_M;
+		double midHeading = mHeading + w * dt / 2.0;
+		mX += v * Math.cos(midHeading) * dt;
+		mY += v * Math.sin(midHeading) * dt;
+		mHeading = normalizeAngle(mHeading + w * dt);
+		mTime += dt;
+
+		int leftEncoder = toEncoderCounts(mLeftWheelAngle);
+		int rightEncoder = toEncoderCounts(mRightWheelAngle);
+		mWheels.setEncoderCounts(leftEncoder, rightEncoder);
+		sense(w);
+
+		mState = new State(mTime, mX, mY, mHeading, leftEncoder, rightEncoder);
+	}
+
+	/**
+	 * Tell each sensor what it sees from the current pose.  w is the rate of turn, rad/s counter
+	 * clockwise.  The sensors only touch the brick's image when their reading changes.
+	 */
+	private void sense(double w) {
+		for (int i=0;i<mSensors.size();i++) {
+			SimData sensor = mSensors.get(i);
+			if (sensor instanceof LegacyGyroSimData) {
+				((LegacyGyroSimData) sensor).setRotationRate(-Math.toDegrees(w));
+			} else if (sensor instanceof LegacyCompassSimData) {
+				((LegacyCompassSimData) sensor).setHeading(-Math.toDegrees(mHeading));
+			} else if (sensor instanceof LegacyUltrasonicSimData) {
+				((LegacyUltrasonicSimData) sensor).setDistance((distanceToWall() - BUMPER_M) * 100.0);
+			} else if (sensor instanceof LegacyTouchSimData) {
+				((LegacyTouchSimData) sensor).setPressed(distanceToWall() <= BUMPER_M);
+			} else if (sensor instanceof LegacyLightSimData) {
+				boolean onLine = Math.abs(mX - LINE_X_M) <= LINE_WIDTH_M / 2.0;
+				((LegacyLightSimData) sensor).setLightDetected(onLine ? LINE_LIGHT : FLOOR_LIGHT);
+			} else if (sensor instanceof LegacyIrSeekerSimData) {
+				double dx = BEACON_X_M - mX;
+				double dy = BEACON_Y_M - mY;
+				double bearing = normalizeAngle(Math.atan2(dy, dx) - mHeading);
+				double strength = 1.0 - Math.sqrt(dx * dx + dy * dy) / BEACON_RANGE_M;
+				((LegacyIrSeekerSimData) sensor).setBeacon(-Math.toDegrees(bearing), strength);
+			}
+		}
+	}
+
+	/**
+	 * Distance from the robot's center to the arena wall straight ahead, 0 if it is outside.
+	 */
+	private double distanceToWall() {
+		double c = Math.cos(mHeading);
+		double s = Math.sin(mHeading);
+		double distance = Double.MAX_VALUE;
+		if (c > 0) distance = Math.min(distance, (FIELD_HALF_WIDTH_M - mX) / c);
+		if (c < 0) distance = Math.min(distance, (-FIELD_HALF_WIDTH_M - mX) / c);
+		if (s > 0) distance = Math.min(distance, (FIELD_HALF_WIDTH_M - mY) / s);
+		if (s < 0) distance = Math.min(distance, (-FIELD_HALF_WIDTH_M - mY) / s);
+		return Math.max(0.0, distance);
+	}
+
+	/**
+	 * First order motor: the wheel speed approaches power * max speed.  A floating motor coasts down
+	 * slowly instead of braking.
+	 */
+	private static double motorResponse(double speed, float power, boolean floatMode, double dt) {
+		double target = floatMode ? 0.0 : power * MAX_WHEEL_RAD_PER_S;
+		double tau = floatMode ? COAST_TIME_CONSTANT_S : MOTOR_TIME_CONSTANT_S;
+		return speed + (target - speed) * (1.0 - Math.exp(-dt / tau));
+	}
+
+	private static int toEncoderCounts(double wheelAngle) {
+		return (int) Math.round(wheelAngle / (2.0 * Math.PI) * ENCODER_COUNTS_PER_REV);
+	}
+
+	private static double normalizeAngle(double angle) {
+		while (angle > Math.PI) angle -= 2.0 * Math.PI;
+		while (angle <= -Math.PI) angle += 2.0 * Math.PI;
+		return angle;
+	}
+
+	/**
+	 * The latest pose and encoder data.  Never blocks.
+	 */
+	public State getState() {
+		return mState;
+	}
+}
@@ -0,0 +1,110 @@
+package hagerty.simulator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Calls a task at a fixed rate using absolute deadlines, so the rate doesn't drift with the time
+ * the task takes.  When the task runs past its deadline the missed ticks are dropped (not run back
+ * to back) and counted as an overrun.
+ *
+ * The ticker also records how late each tick started compared to its deadline (jitter).
+ *
+ * @author Hagerty High
+ */
+public class FixedRateTicker {
+
+    /** Tick rate used when -Dsimulator.tickRate isn't given. */
+    public static final int DEFAULT_RATE_HZ = 100;
+
+    private final int mRateHz;
+    private final long mPeriodNanos;
+    private volatile boolean mStopped = false;
+
+    // Statistics, written by the ticking thread only
+    private volatile long mTickCount;
+    private volatile long mOverrunCount;
+    private volatile long mMaxJitterNanos;
+    private volatile long mTotalJitterNanos;
+
+    public FixedRateTicker(int rateHz) {
+        if (rateHz <= 0) throw new IllegalArgumentException("tick rate must be positive: " + rateHz);
+        mRateHz = rateHz;
+        mPeriodNanos = TimeUnit.SECONDS.toNanos(1) / rateHz;
+    }
+
+    /**
+     * Build a ticker running at the rate given with -Dsimulator.tickRate (for example 50, 100 or 200),
+     * or at {@link #DEFAULT_RATE_HZ}.
+     */
+    public static FixedRateTicker fromSystemProperties() {
+        return new FixedRateTicker(Integer.getInteger("simulator.tickRate", DEFAULT_RATE_HZ));
+    }
+
+    /**
+     * Run the task once per period on the calling thread until {@link #stop()} is called or the
+     * simulator threads are shut down.
+     */
+    public void run(Runnable task) {
+        long deadline = System.nanoTime();
+
+        while (!mStopped && RobotSimulator.gThreadsAreRunning) {
+            long now = System.nanoTime();
+            long jitter = now - deadline;
+            mTotalJitterNanos += jitter;
+            if (jitter > mMaxJitterNanos) mMaxJitterNanos = jitter;
+            mTickCount++;
+
+            task.run();
+
+            deadline += mPeriodNanos;
+            now = System.nanoTime();
+            if (now - deadline > 0) {
+                // We blew through at least one deadline.  Skip the ticks we missed instead of
+                // bunching them up.
+                long missed = (now - deadline) / mPeriodNanos + 1;
+                mOverrunCount += missed;
+                deadline += missed * mPeriodNanos;
+            }
+
+            // parkNanos may return early (spurious wakeups, interrupts), so park until the deadline
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0 && !mStopped) {
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.currentThread().isInterrupted()) return;
+            }
+        }
+    }
+
+    public void stop() {
+        mStopped = true;
+    }
+
+    public int getRateHz() {
+        return mRateHz;
+    }
+
+    public long getTickCount() {
+        return mTickCount;
+    }
+
+    public long getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    public long getMaxJitterNanos() {
+        return mMaxJitterNanos;
+    }
+
+    public long getMeanJitterNanos() {
+        long ticks = mTickCount;
+        return ticks == 0 ? 0 : mTotalJitterNanos / ticks;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d Hz: %d ticks, %d overruns, jitter mean %.3f ms max %.3f ms",
+                mRateHz, getTickCount(), getOverrunCount(),
+                getMeanJitterNanos() / 1e6, getMaxJitterNanos() / 1e6);
+    }
+}
@@ -0,0 +1,156 @@
+package hagerty.simulator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import hagerty.simulator.legacy.data.SimDataType;
+import hagerty.simulator.modules.BrickSimulator;
+import hagerty.simulator.modules.DeviceInterfaceBrickSimulator;
+import hagerty.simulator.modules.LegacyBrickSimulator;
+import hagerty.simulator.modules.MotorBrickSimulator;
+import hagerty.simulator.modules.ServoBrickSimulator;
+
+/**
+ * Binary module list sent in reply to a discovery request, the compact alternative to the XML
+ * list.  The phone asks for it with the three bytes { '?', 'B', version }; a plain '?' still gets the
+ * XML list, so old phones keep working, and a phone talking to an old simulator gets XML back and
+ * can tell it apart by the first byte.
+ *
+ * The list is split into fragments that each fit one datagram.  Everything is big endian.
+ *
+ *    fragment   magic 'S' 'M'   version   fragment index   fragment count   revision (2 bytes)
+ *               entry count     reserved (0)    entries...
+ *    entry      brick type      serial length   serial (UTF-8)   port (2 bytes)
+ *               port count      port types (one byte per port)
+ *
+ * The revision is the same in every fragment of one list, so the phone can throw away fragments
+ * left over from an older list.
+ *
+ * @author Hagerty High
+ */
+public final class ModuleEnumeration {
+
+	public static final byte REQUEST_BINARY = 'B';
+	public static final byte MAGIC_0 = 'S';
+	public static final byte MAGIC_1 = 'M';
+	public static final int VERSION = 1;
+
+	public static final int HEADER_LENGTH = 9;
+	public static final int MAX_FRAGMENT_LENGTH = 1024;   // what the phone's receive buffer holds
+
+	// Brick types
+	public static final int TYPE_UNKNOWN = 0;
+	public static final int TYPE_LEGACY_MODULE = 1;
+	public static final int TYPE_MOTOR_CONTROLLER = 2;
+	public static final int TYPE_SERVO_CONTROLLER = 3;
+	public static final int TYPE_DEVICE_INTERFACE_MODULE = 4;
+
+	private ModuleEnumeration() {
+	}
+
+	/**
+	 * Encode the brick list as one or more fragments.  An empty list is still sent as one fragment
+	 * with no entries.
+	 *
+	 * @param revision changes whenever the brick list does, only the low 16 bits are sent
+	 */
+	public static List<byte[]> encode(List<BrickSimulator> bricks, int revision) {
+		List<byte[]> entries = new ArrayList<byte[]>();
+		for (BrickSimulator brick : bricks) {
+			entries.add(encodeEntry(brick));
+		}
+
+		// Pack entries into fragments
+		List<List<byte[]>> fragments = new ArrayList<List<byte[]>>();
+		List<byte[]> current = new ArrayList<byte[]>();
+		int length = HEADER_LENGTH;
+		for (byte[] entry : entries) {
+			if (!current.isEmpty() && (length + entry.length > MAX_FRAGMENT_LENGTH || current.size() == 255)) {
+				fragments.add(current);
+				current = new ArrayList<byte[]>();
+				length = HEADER_LENGTH;
+			}
+			current.add(entry);
+			length += entry.length;
+		}
+		fragments.add(current);
+
+		if (fragments.size() > 255) {
+			throw new IllegalArgumentException("too many bricks to enumerate: " + bricks.size());
+		}
+
+		List<byte[]> packets = new ArrayList<byte[]>(fragments.size());
+		for (int i=0;i<fragments.size();i++) {
+			List<byte[]> fragment = fragments.get(i);
+			int size = HEADER_LENGTH;
+			for (byte[] entry : fragment) size += entry.length;
+
+			ByteBuffer packet = ByteBuffer.allocate(size);
+			packet.put(MAGIC_0).put(MAGIC_1).put((byte) VERSION);
+			packet.put((byte) i).put((byte) fragments.size());
+			packet.putShort((short) revision);
+			packet.put((byte) fragment.size());
+			packet.put((byte) 0);   // reserved
+			for (byte[] entry : fragment) packet.put(entry);
+			packets.add(packet.array());
+		}
+		return packets;
+	}
+
+	private static byte[] encodeEntry(BrickSimulator brick) {
+		byte[] serial = brick.getSerial().getBytes(StandardCharsets.UTF_8);
+		int serialLength = Math.min(serial.length, 255);
+
+		SimDataType[] portTypes = new SimDataType[0];
+		if (brick instanceof LegacyBrickSimulator) {
+			portTypes = ((LegacyBrickSimulator) brick).getPortType();
+		} else if (brick instanceof DeviceInterfaceBrickSimulator) {
+			portTypes = ((DeviceInterfaceBrickSimulator) brick).getPortType();
+		}
+
+		ByteBuffer entry = ByteBuffer.allocate(1 + 1 + serialLength + 2 + 1 + portTypes.length);
+		entry.put((byte) brickType(brick));
+		entry.put((byte) serialLength);
+		entry.put(serial, 0, serialLength);
+		entry.putShort((short) brick.getPort().intValue());
+		entry.put((byte) portTypes.length);
+		for (SimDataType type : portTypes) {
+			entry.put((byte) portTypeCode(type));
+		}
+		return entry.array();
+	}
+
+	static int brickType(BrickSimulator brick) {
+		if (brick instanceof LegacyBrickSimulator) return TYPE_LEGACY_MODULE;
+		if (brick instanceof MotorBrickSimulator) return TYPE_MOTOR_CONTROLLER;
+		if (brick instanceof ServoBrickSimulator) return TYPE_SERVO_CONTROLLER;
+		if (brick instanceof DeviceInterfaceBrickSimulator) return TYPE_DEVICE_INTERFACE_MODULE;
+		return TYPE_UNKNOWN;
+	}
+
+	/**
+	 * Wire codes for port types.  These are fixed, unlike the enum's ordinals, so new types must
+	 * be given a new code here and on the phone.
+	 */
+	static int portTypeCode(SimDataType type) {
+		if (type == null) return 0;
+		switch (type) {
+		case NONE:         return 0;
+		case LEGACY_MOTOR: return 1;
+		case LEGACY_LIGHT: return 2;
+		case LEGACY_TOUCH: return 3;
+		case USB_MOTOR:    return 4;
+		case USB_SERVO:    return 5;
+		case DIM_ANALOG:   return 6;
+		case DIM_DIGITAL:  return 7;
+		case DIM_I2C_COLOR: return 8;
+		case LEGACY_GYRO:  return 9;
+		case LEGACY_COMPASS: return 10;
+		case LEGACY_IR_SEEKER: return 11;
+		case LEGACY_ULTRASONIC: return 12;
+		default:           return 0;
+		}
+	}
+}
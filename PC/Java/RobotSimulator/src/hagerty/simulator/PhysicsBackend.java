@@ -0,0 +1,32 @@
+package hagerty.simulator;
+
+/**
+ * Something that takes the motor commands the phone writes into the simulated bricks and moves a
+ * robot with them.  RobotSimulator.startVisualizer picks one with -Dsimulator.physics:
+ *
+ *    vrep      CoppeliaApiClient, drives the robot in a running V-REP scene (default)
+ *    headless  DifferentialDrivePhysics, a pure Java model that needs no native library
+ *
+ * The backend is started on its own thread once init() succeeds.
+ *
+ * @author Hagerty High
+ */
+public interface PhysicsBackend extends Runnable {
+
+	/**
+	 * Name used in log messages.
+	 */
+	String getName();
+
+	/**
+	 * Connect to the simulator and look up everything run() needs.
+	 *
+	 * @return false if the backend can't run
+	 */
+	boolean init();
+
+	/**
+	 * Ask run() to finish its current step and return.
+	 */
+	void stop();
+}
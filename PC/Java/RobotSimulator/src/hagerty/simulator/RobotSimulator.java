@@ -1,5 +1,6 @@
 package hagerty.simulator;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.util.List;
 
@@ -8,11 +9,17 @@ import hagerty.simulator.modules.BrickSimulator;
 public class RobotSimulator  {
 
 	static BrickListGenerator gBrickListGenerator;
-	static CoppeliaApiClient gCoppeliaApiClient;
+	static PhysicsBackend gPhysicsBackend;
+	static final SimulationClock gClock = SimulationClock.fromSystemProperties();
+	static BrickReactor gBrickReactor;
 	static public volatile boolean gThreadsAreRunning = true;
     static int gPhonePort;
     static InetAddress gPhoneIPAddress;
     
+    // Serve all of the bricks from one selector thread.  Run with -Dsimulator.threadPerBrick=true
+    // to fall back to the old blocking thread per brick.
+    static public boolean gUseBrickReactor = !Boolean.getBoolean("simulator.threadPerBrick");
+
     static boolean simulatorStarted = false;
     static boolean visualizerStarted = false;
 
@@ -30,10 +37,23 @@ public class RobotSimulator  {
         Thread moduleListerThread = new Thread(gBrickListGenerator,"");
         moduleListerThread.start();
 
-        // Start the individual threads for each module
         // Read the current list of modules from the GUI MainApp class
         List<BrickSimulator> brickList = mainApp.getBrickData();
 
+        if (gUseBrickReactor) {
+        	System.out.println("Starting Brick Reactor...");
+        	try {
+        		gBrickReactor = new BrickReactor(brickList);  // Runnable
+        		Thread reactorThread = new Thread(gBrickReactor, "BrickReactor");
+        		reactorThread.start();
+        		return;
+        	} catch (IOException e) {
+        		System.out.println("Brick Reactor failed to start, using a thread per brick");
+        		e.printStackTrace();
+        	}
+        }
+
+        // Start the individual threads for each module
         for (BrickSimulator temp : brickList) {
         	Thread t = new Thread(temp,temp.getAlias());  // Make a thread from the object and also set the process name
         	t.start();
@@ -50,17 +70,35 @@ public class RobotSimulator  {
 
     	visualizerStarted = true;
 
-		// Start the module info server
-    	System.out.println("Starting Visualizer...");
-    	gCoppeliaApiClient = new CoppeliaApiClient(mainApp); // Runnable
-    	Thread coppeliaThread = new Thread(gCoppeliaApiClient,"");
-    	if (gCoppeliaApiClient.init()) {
-    		coppeliaThread.start();
+		// Start the physics backend picked with -Dsimulator.physics=vrep|headless
+    	gPhysicsBackend = buildPhysicsBackend(System.getProperty("simulator.physics", "vrep"), mainApp);
+    	System.out.println("Starting Visualizer (" + gPhysicsBackend.getName() + ")...");
+    	Thread physicsThread = new Thread(gPhysicsBackend, gPhysicsBackend.getName());
+    	if (gPhysicsBackend.init()) {
+    		physicsThread.start();
     	} else {
     		System.out.println("Initialization of Visualizer failed");
     	}
     }
 
+    static PhysicsBackend buildPhysicsBackend(String name, hagerty.gui.MainApp mainApp) {
+    	if ("headless".equalsIgnoreCase(name)) {
+    		return new DifferentialDrivePhysics(mainApp);
+    	}
+    	return new CoppeliaApiClient(mainApp);
+    }
+
+    static public PhysicsBackend getPhysicsBackend() {
+    	return gPhysicsBackend;
+    }
+
+    /**
+     * The simulation clock shared by the bricks and the physics backend.
+     */
+    static public SimulationClock getClock() {
+    	return gClock;
+    }
+
     static public boolean visualizerStarted() {
     	return visualizerStarted;
     }
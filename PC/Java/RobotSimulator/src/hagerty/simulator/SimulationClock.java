@@ -0,0 +1,106 @@
+package hagerty.simulator;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The simulator's notion of time.  Owned by RobotSimulator and picked with -Dsimulator.clock:
+ *
+ *    realtime  simulation time is wall clock time since the simulator started (default)
+ *    lockstep  simulation time only moves when the phone completes a read/write cycle, by a fixed
+ *              quantum each time (-Dsimulator.lockstepQuantumMs, default 10)
+ *
+ * In lockstep mode the physics backend is stepped from {@link #cycle(Object)}, on the brick thread,
+ * before the phone's read is answered.  The phone always sees the robot exactly one quantum further
+ * along than its last read, and a run goes as fast as the phone and the CPU allow instead of taking
+ * its wall clock duration.
+ *
+ * @author Hagerty High
+ */
+public final class SimulationClock {
+
+	public enum Mode {
+		REAL_TIME,
+		LOCKSTEP
+	}
+
+	/**
+	 * Called from {@link SimulationClock#cycle(Object)} each time lockstep time advances.
+	 */
+	public interface Listener {
+		void onAdvance(long nowNanos, long quantumNanos);
+	}
+
+	private final Mode mMode;
+	private final long mQuantumNanos;
+	private final long mStartNanos = System.nanoTime();
+	private volatile long mSimNanos = 0;
+
+	private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<Listener>();
+
+	// The first brick to complete a cycle paces the clock, so several bricks polled by the same phone
+	// loop don't each advance it
+	private final AtomicReference<Object> mPacer = new AtomicReference<Object>();
+
+	public SimulationClock(Mode mode, long quantumNanos) {
+		mMode = mode;
+		mQuantumNanos = quantumNanos;
+	}
+
+	public static SimulationClock fromSystemProperties() {
+		Mode mode = "lockstep".equalsIgnoreCase(System.getProperty("simulator.clock")) ? Mode.LOCKSTEP : Mode.REAL_TIME;
+		long quantumMs = Long.getLong("simulator.lockstepQuantumMs", 10);
+		return new SimulationClock(mode, TimeUnit.MILLISECONDS.toNanos(quantumMs));
+	}
+
+	public Mode getMode() {
+		return mMode;
+	}
+
+	public boolean isLockstep() {
+		return mMode == Mode.LOCKSTEP;
+	}
+
+	public long getQuantumNanos() {
+		return mQuantumNanos;
+	}
+
+	/**
+	 * Simulation time in nanoseconds since the simulator started.
+	 */
+	public long nanoTime() {
+		return mMode == Mode.LOCKSTEP ? mSimNanos : System.nanoTime() - mStartNanos;
+	}
+
+	public double seconds() {
+		return nanoTime() / 1e9;
+	}
+
+	public void addListener(Listener listener) {
+		mListeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * Called by a brick each time the phone reads its state.  In lockstep mode this advances time by
+	 * one quantum and steps every listener before returning.  Does nothing in real time mode.
+	 *
+	 * @param source the brick that saw the cycle
+	 */
+	public void cycle(Object source) {
+		if (mMode != Mode.LOCKSTEP) return;
+		if (mPacer.get() != source && !mPacer.compareAndSet(null, source)) return;
+
+		synchronized (this) {
+			long now = mSimNanos + mQuantumNanos;
+			for (Listener listener : mListeners) {
+				listener.onAdvance(now, mQuantumNanos);
+			}
+			mSimNanos = now;
+		}
+	}
+}
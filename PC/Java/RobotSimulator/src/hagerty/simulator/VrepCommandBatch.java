@@ -0,0 +1,124 @@
+package hagerty.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import coppelia.FloatW;
+import coppelia.remoteApi;
+
+/**
+ * Batches the V-REP remote API calls made during one tick.
+ *
+ * Writes are issued as simx_opmode_oneshot between simxPauseCommunication(true) and
+ * simxPauseCommunication(false), so the remote API library sends all of them to V-REP in a single
+ * message instead of one message per joint.  Sensor values are read from streaming subscriptions
+ * with simx_opmode_buffer, which only looks at what V-REP has already pushed to us and never blocks.
+ *
+ * Not thread safe, a batch belongs to the thread that ticks the visualizer.
+ *
+ * @author Hagerty High
+ */
+public class VrepCommandBatch {
+
+    private final remoteApi mVrep;
+    private final int mClientID;
+    private final List<JointPosition> mJointPositions = new ArrayList<JointPosition>();
+
+    private boolean mPaused = false;
+    private int mQueued = 0;
+    private long mMessagesSent = 0;
+    private long mCommandsSent = 0;
+
+    /**
+     * A streamed joint angle.  V-REP pushes a new value every simulation step once subscribed.
+     */
+    public static class JointPosition {
+        final int handle;
+        final FloatW value = new FloatW(0);
+        boolean valid = false;
+
+        JointPosition(int handle) {
+            this.handle = handle;
+        }
+
+        /** Radians, as of the last {@link VrepCommandBatch#readSensors()} that got a value. */
+        public float get() {
+            return value.getValue();
+        }
+
+        /** False until the first streamed value has arrived. */
+        public boolean isValid() {
+            return valid;
+        }
+    }
+
+    public VrepCommandBatch(remoteApi vrep, int clientID) {
+        mVrep = vrep;
+        mClientID = clientID;
+    }
+
+    /**
+     * Ask V-REP to stream a joint's position to us.  Call once during setup.
+     */
+    public JointPosition subscribeJointPosition(int jointHandle) {
+        JointPosition position = new JointPosition(jointHandle);
+        mVrep.simxGetJointPosition(mClientID, jointHandle, position.value, remoteApi.simx_opmode_streaming);
+        mJointPositions.add(position);
+        return position;
+    }
+
+    /**
+     * Pick up the latest streamed value of every subscription.  Doesn't wait on V-REP.
+     */
+    public void readSensors() {
+        for (int i=0;i<mJointPositions.size();i++) {
+            JointPosition position = mJointPositions.get(i);
+            int ret = mVrep.simxGetJointPosition(mClientID, position.handle, position.value, remoteApi.simx_opmode_buffer);
+            if (ret == remoteApi.simx_return_ok) position.valid = true;
+        }
+    }
+
+    public void setJointTargetVelocity(int jointHandle, float velocity) {
+        pause();
+        mVrep.simxSetJointTargetVelocity(mClientID, jointHandle, velocity, remoteApi.simx_opmode_oneshot);
+        mQueued++;
+    }
+
+    public void setJointTargetPosition(int jointHandle, float position) {
+        pause();
+        mVrep.simxSetJointTargetPosition(mClientID, jointHandle, position, remoteApi.simx_opmode_oneshot);
+        mQueued++;
+    }
+
+    public void setObjectFloatParameter(int objectHandle, int parameterID, float value) {
+        pause();
+        mVrep.simxSetObjectFloatParameter(mClientID, objectHandle, parameterID, value, remoteApi.simx_opmode_oneshot);
+        mQueued++;
+    }
+
+    /**
+     * Send everything queued since the last flush as one message.  Does nothing if nothing was queued.
+     */
+    public void flush() {
+        if (!mPaused) return;
+        mVrep.simxPauseCommunication(mClientID, false);
+        mPaused = false;
+        mMessagesSent++;
+        mCommandsSent += mQueued;
+        mQueued = 0;
+    }
+
+    private void pause() {
+        if (mPaused) return;
+        mVrep.simxPauseCommunication(mClientID, true);
+        mPaused = true;
+    }
+
+    public long getMessagesSent() {
+        return mMessagesSent;
+    }
+
+    public long getCommandsSent() {
+        return mCommandsSent;
+    }
+}
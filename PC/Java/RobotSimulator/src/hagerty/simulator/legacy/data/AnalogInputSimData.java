@@ -0,0 +1,134 @@
+package hagerty.simulator.legacy.data;
+
+import java.nio.ByteBuffer;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.scene.control.Slider;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+
+import hagerty.utils.StateImage;
+
+/**
+ * A sensor on one of the eight analog inputs of a Core Device Interface Module, for example an
+ * optical distance sensor.
+ *
+ * The module reports each input as a 10 bit reading, 0..1023 for 0..5 V, in a little endian word at
+ * 0x04 + 2 * port.  Whoever knows what the sensor sees (the physics backend, or the slider in the
+ * debug window) sets the voltage, and it goes straight into the module's image, so the phone's reads
+ * are answered without working anything out.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public class AnalogInputSimData extends SimData {
+
+	public static final int REGISTER_ANALOG_A0 = 0x04;
+	public static final int PORTS = 8;
+	public static final double MAX_VOLTS = 5.0;
+	public static final int MAX_READING = 1023;
+
+	/**
+	 * The voltage on the input.
+	 */
+	public static final class AnalogSnapshot implements SimData.Snapshot {
+		public final double volts;
+
+		AnalogSnapshot(double volts) {
+			this.volts = volts;
+		}
+	}
+
+	// Only replaced, never modified
+	volatile AnalogSnapshot mSnapshot = new AnalogSnapshot(0.0);
+
+	// GUI stuff for the Debug windows
+	private Label mDebugLabel;
+
+	public AnalogInputSimData() {
+		super(SimDataType.DIM_ANALOG);
+		construct();
+	}
+
+	@Override
+	protected void construct() {
+		System.out.println("Building Analog Input SimData");
+	}
+
+	/**
+	 * Register of this input's reading.
+	 */
+	public static int register(int port) {
+		return REGISTER_ANALOG_A0 + 2 * port;
+	}
+
+	/**
+	 * Set the voltage on the input, clamped to 0..5 V, and write the reading into the image.
+	 */
+	public void setVoltage(double volts) {
+		volts = Math.max(0.0, Math.min(MAX_VOLTS, volts));
+		if (volts == mSnapshot.volts) return;
+		mSnapshot = new AnalogSnapshot(volts);
+
+		StateImage image = mStateImage;
+		if (image == null) return;
+		ByteBuffer state = image.beginWrite();
+		try {
+			putReading(state);
+		} finally {
+			image.publish();
+		}
+	}
+
+	public double getVoltage() {
+		return mSnapshot.volts;
+	}
+
+	/**
+	 * Write the current reading into a back buffer of the image.
+	 */
+	public void putReading(ByteBuffer state) {
+		int reading = (int)Math.round(mSnapshot.volts / MAX_VOLTS * MAX_READING);
+		int register = register(mPort);
+		state.put(register, (byte)reading);
+		state.put(register + 1, (byte)(reading >> 8));
+	}
+
+	@Override
+	public AnalogSnapshot snapshot() {
+		return mSnapshot;
+	}
+
+//
+// GUI Routines
+//
+
+	public void populateDebugGuiVbox() {
+		if (mDebugLabel != null) mDebugLabel.setText(String.format("%.2f V", mSnapshot.volts));
+	}
+
+	public void setupDebugGuiVbox(VBox vbox) {
+		HBox hbox = new HBox();
+		hbox.setPadding(new Insets(5, 12, 5, 12));
+		hbox.setSpacing(10);
+
+		hbox.getChildren().add(new Text(getSimDataName() + " (A" + mPort + ")"));
+
+		Slider slider = new Slider(0.0, MAX_VOLTS, mSnapshot.volts);
+		slider.valueProperty().addListener(new ChangeListener<Number>() {
+			public void changed(ObservableValue<? extends Number> observable, Number oldValue, Number newValue) {
+				setVoltage(newValue.doubleValue());
+			}
+		});
+		hbox.getChildren().add(slider);
+
+		mDebugLabel = new Label("label");
+		hbox.getChildren().add(mDebugLabel);
+		vbox.getChildren().add(hbox);
+	}
+}
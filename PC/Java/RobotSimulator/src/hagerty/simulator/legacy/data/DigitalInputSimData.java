@@ -0,0 +1,127 @@
+package hagerty.simulator.legacy.data;
+
+import java.nio.ByteBuffer;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.geometry.Insets;
+import javafx.scene.control.CheckBox;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+
+import hagerty.utils.StateImage;
+
+/**
+ * A switch on one of the eight digital channels of a Core Device Interface Module, for example a
+ * touch sensor.
+ *
+ *    0x14  input state, one bit per channel
+ *    0x15  I/O control, a set bit makes the channel an output
+ *    0x16  output state
+ *
+ * The input state of a channel set up as an output reads back what is being output.  Setting the
+ * level writes it straight into the module's image.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public class DigitalInputSimData extends SimData {
+
+	public static final int REGISTER_INPUT_STATE = 0x14;
+	public static final int REGISTER_IO_CONTROL = 0x15;
+	public static final int REGISTER_OUTPUT_STATE = 0x16;
+	public static final int PORTS = 8;
+
+	/**
+	 * The level on the channel.
+	 */
+	public static final class DigitalSnapshot implements SimData.Snapshot {
+		public final boolean high;
+
+		DigitalSnapshot(boolean high) {
+			this.high = high;
+		}
+	}
+
+	// Only replaced, never modified
+	volatile DigitalSnapshot mSnapshot = new DigitalSnapshot(false);
+
+	// GUI stuff for the Debug windows
+	private CheckBox mDebugCheckBox;
+
+	public DigitalInputSimData() {
+		super(SimDataType.DIM_DIGITAL);
+		construct();
+	}
+
+	@Override
+	protected void construct() {
+		System.out.println("Building Digital Input SimData");
+	}
+
+	/**
+	 * Set the level on the channel and write it into the image.
+	 */
+	public void setState(boolean high) {
+		if (high == mSnapshot.high) return;
+		mSnapshot = new DigitalSnapshot(high);
+
+		StateImage image = mStateImage;
+		if (image == null) return;
+		ByteBuffer state = image.beginWrite();
+		try {
+			putInput(state);
+		} finally {
+			image.publish();
+		}
+	}
+
+	public boolean getState() {
+		return mSnapshot.high;
+	}
+
+	/**
+	 * Write this channel's bit of the input state into a back buffer of the image, unless the channel
+	 * is an output.
+	 */
+	public void putInput(ByteBuffer state) {
+		int mask = 1 << mPort;
+		if ((state.get(REGISTER_IO_CONTROL) & mask) != 0) return;
+		int inputs = state.get(REGISTER_INPUT_STATE);
+		inputs = mSnapshot.high ? inputs | mask : inputs & ~mask;
+		state.put(REGISTER_INPUT_STATE, (byte)inputs);
+	}
+
+	@Override
+	public DigitalSnapshot snapshot() {
+		return mSnapshot;
+	}
+
+//
+// GUI Routines
+//
+
+	public void populateDebugGuiVbox() {
+		if (mDebugCheckBox != null) mDebugCheckBox.setText(mSnapshot.high ? "high" : "low");
+	}
+
+	public void setupDebugGuiVbox(VBox vbox) {
+		HBox hbox = new HBox();
+		hbox.setPadding(new Insets(5, 12, 5, 12));
+		hbox.setSpacing(10);
+
+		hbox.getChildren().add(new Text(getSimDataName() + " (D" + mPort + ")"));
+
+		mDebugCheckBox = new CheckBox("low");
+		mDebugCheckBox.setSelected(mSnapshot.high);
+		mDebugCheckBox.selectedProperty().addListener(new ChangeListener<Boolean>() {
+			public void changed(ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) {
+				setState(newValue);
+			}
+		});
+		hbox.getChildren().add(mDebugCheckBox);
+		vbox.getChildren().add(hbox);
+	}
+}
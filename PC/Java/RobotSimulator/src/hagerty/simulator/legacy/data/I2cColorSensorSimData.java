@@ -0,0 +1,121 @@
+package hagerty.simulator.legacy.data;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+
+/**
+ * A Modern Robotics I2C color sensor, at the default bus address 0x3C.
+ *
+ *    0x00-0x02  firmware version, manufacturer 'M', sensor id 'C'
+ *    0x03       command: 0x00 LED on (active), 0x01 LED off (passive)
+ *    0x04       color number, 0..16
+ *    0x05-0x08  red, green, blue, white (alpha)
+ *
+ * Only the command register is writable.  The physics backend, or a test, sets what the sensor sees.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public class I2cColorSensorSimData extends I2cDeviceSimData {
+
+	public static final int I2C_ADDRESS = 0x3C;
+
+	public static final int REGISTER_VERSION = 0x00;
+	public static final int REGISTER_MANUFACTURER = 0x01;
+	public static final int REGISTER_SENSOR_ID = 0x02;
+	public static final int REGISTER_COMMAND = 0x03;
+	public static final int REGISTER_COLOR_NUMBER = 0x04;
+	public static final int REGISTER_RED = 0x05;
+
+	public static final int COMMAND_ACTIVE_LED = 0x00;
+	public static final int COMMAND_PASSIVE_LED = 0x01;
+
+	/**
+	 * What the sensor sees and whether its LED is on.
+	 */
+	public static final class ColorSnapshot implements SimData.Snapshot {
+		public final int colorNumber;
+		public final int red;
+		public final int green;
+		public final int blue;
+		public final int alpha;
+		public final boolean ledOn;
+
+		ColorSnapshot(int colorNumber, int red, int green, int blue, int alpha, boolean ledOn) {
+			this.colorNumber = colorNumber;
+			this.red = red;
+			this.green = green;
+			this.blue = blue;
+			this.alpha = alpha;
+			this.ledOn = ledOn;
+		}
+	}
+
+	// GUI stuff for the Debug windows
+	private Label mDebugLabel;
+
+	public I2cColorSensorSimData() {
+		super(SimDataType.DIM_I2C_COLOR);
+		construct();
+		setRegisters(REGISTER_VERSION, 0x01, 'M', 'C', COMMAND_ACTIVE_LED);
+	}
+
+	@Override
+	protected void construct() {
+		System.out.println("Building I2C Color Sensor SimData");
+	}
+
+	@Override
+	public int getI2cAddress() {
+		return I2C_ADDRESS;
+	}
+
+	@Override
+	protected boolean isWritable(int register) {
+		return register == REGISTER_COMMAND;
+	}
+
+	/**
+	 * Set what the sensor sees, each channel 0..255.
+	 */
+	public void setColor(int colorNumber, int red, int green, int blue, int alpha) {
+		setRegisters(REGISTER_COLOR_NUMBER, colorNumber, red, green, blue, alpha);
+	}
+
+	public synchronized boolean isLedOn() {
+		return getRegister(REGISTER_COMMAND) == COMMAND_ACTIVE_LED;
+	}
+
+	@Override
+	public synchronized ColorSnapshot snapshot() {
+		return new ColorSnapshot(getRegister(REGISTER_COLOR_NUMBER), getRegister(REGISTER_RED),
+				getRegister(REGISTER_RED + 1), getRegister(REGISTER_RED + 2), getRegister(REGISTER_RED + 3), isLedOn());
+	}
+
+//
+// GUI Routines
+//
+
+	public void populateDebugGuiVbox() {
+		if (mDebugLabel == null) return;
+		ColorSnapshot snapshot = snapshot();
+		mDebugLabel.setText(String.format("color %d  r %d g %d b %d a %d  LED %s", snapshot.colorNumber,
+				snapshot.red, snapshot.green, snapshot.blue, snapshot.alpha, snapshot.ledOn ? "on" : "off"));
+	}
+
+	public void setupDebugGuiVbox(VBox vbox) {
+		HBox hbox = new HBox();
+		hbox.setPadding(new Insets(5, 12, 5, 12));
+		hbox.setSpacing(10);
+
+		hbox.getChildren().add(new Text(getSimDataName() + " (I2C " + mPort + ")"));
+
+		mDebugLabel = new Label("label");
+		hbox.getChildren().add(mDebugLabel);
+		vbox.getChildren().add(hbox);
+	}
+}
@@ -0,0 +1,99 @@
+package hagerty.simulator.legacy.data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A device on an I2C port, seen the way the bus sees it: an address and a file of 256 byte wide
+ * registers.  The brick's I2C engine reads and writes the registers; subclasses fill them in from
+ * whatever they simulate and decide which ones the phone may write.
+ *
+ * Register access is synchronized on the device, so a setter called by the physics backend never
+ * tears a multi byte value the phone is reading.
+ */
+public abstract class I2cDeviceSimData extends SimData {
+
+	public static final int REGISTERS = 256;
+
+	protected final byte[] mRegisters = new byte[REGISTERS];
+
+	// Bumped whenever the registers change, so a port can tell its read buffer is stale
+	private volatile int mRevision;
+
+	public I2cDeviceSimData(SimDataType type) {
+		super(type);
+	}
+
+	/**
+	 * 8 bit bus address, as the SDK gives it (the 7 bit address shifted left by one).
+	 */
+	public abstract int getI2cAddress();
+
+	/**
+	 * True if the phone may write the register.
+	 */
+	protected abstract boolean isWritable(int register);
+
+	/**
+	 * Hook for a subclass that reacts to a write from the phone, a command register for example.
+	 * Called with the device locked.
+	 */
+	protected void onWrite(int register, byte value) {
+	}
+
+	/**
+	 * Copy registers into a buffer at an absolute index.  Registers past the end read as 0.
+	 */
+	public synchronized void read(int register, ByteBuffer dest, int index, int length) {
+		for (int i=0;i<length;i++) {
+			int r = register + i;
+			dest.put(index + i, r < REGISTERS ? mRegisters[r] : 0);
+		}
+	}
+
+	/**
+	 * Write registers from a buffer at an absolute index.  Read only registers are left alone.
+	 */
+	public synchronized void write(int register, ByteBuffer src, int index, int length) {
+		for (int i=0;i<length;i++) {
+			int r = register + i;
+			if (r >= REGISTERS || !isWritable(r)) continue;
+			byte value = src.get(index + i);
+			mRegisters[r] = value;
+			onWrite(r, value);
+		}
+		mRevision++;
+	}
+
+	/**
+	 * Set consecutive registers from the simulation side, all at once.
+	 */
+	protected void setRegisters(int register, int... values) {
+		int first = -1;
+		int last = -1;
+		synchronized (this) {
+			for (int i=0;i<values.length;i++) {
+				if (mRegisters[register + i] == (byte)values[i]) continue;
+				mRegisters[register + i] = (byte)values[i];
+				if (first < 0) first = register + i;
+				last = register + i;
+			}
+			if (first >= 0) mRevision++;
+		}
+		if (first >= 0) onRegistersChanged(first, last - first + 1);
+	}
+
+	/**
+	 * Hook for a subclass that copies changed registers somewhere, a brick's image for example.
+	 * Called without the device locked, so it may lock the image and then read the device.
+	 */
+	protected void onRegistersChanged(int register, int count) {
+	}
+
+	protected synchronized int getRegister(int register) {
+		return mRegisters[register] & 0xff;
+	}
+
+	public int getRevision() {
+		return mRevision;
+	}
+}
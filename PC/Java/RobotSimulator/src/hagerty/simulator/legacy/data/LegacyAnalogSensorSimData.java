@@ -0,0 +1,128 @@
+package hagerty.simulator.legacy.data;
+
+import java.nio.ByteBuffer;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+
+import hagerty.utils.StateImage;
+
+/**
+ * An analog NXT sensor on a port of the Core Legacy Module.
+ *
+ * The module reports each port's analog input as a 10 bit reading, 0..1023 for 0..5 V, in a little
+ * endian word at 4 + 2 * port.  Subclasses turn what the sensor sees into a reading and set it; the
+ * two bytes are rewritten in the module's image only when the reading changes, so the phone's reads
+ * are answered without working anything out.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public abstract class LegacyAnalogSensorSimData extends SimData {
+
+	public static final int ANALOG_BASE = 4;
+	public static final int MAX_READING = 1023;
+
+	/**
+	 * The raw reading on the port.
+	 */
+	public static final class AnalogSnapshot implements SimData.Snapshot {
+		public final int reading;
+
+		AnalogSnapshot(int reading) {
+			this.reading = reading;
+		}
+	}
+
+	// Only replaced, never modified
+	volatile AnalogSnapshot mSnapshot;
+
+	// GUI stuff for the Debug windows
+	private Label mDebugLabel;
+
+	public LegacyAnalogSensorSimData(SimDataType type, int initialReading) {
+		super(type);
+		mSnapshot = new AnalogSnapshot(initialReading);
+	}
+
+	/**
+	 * Offset of a port's reading in the module's image.
+	 */
+	public static int register(int port) {
+		return ANALOG_BASE + 2 * port;
+	}
+
+	@Override
+	public void attach(StateImage stateImage, int port) {
+		super.attach(stateImage, port);
+		ByteBuffer state = stateImage.beginWrite();
+		try {
+			putReading(state);
+		} finally {
+			stateImage.publish();
+		}
+	}
+
+	/**
+	 * Set the raw reading, clamped to 0..1023, and write it into the image if it changed.
+	 */
+	protected void setReading(int reading) {
+		reading = Math.max(0, Math.min(MAX_READING, reading));
+		if (reading == mSnapshot.reading) return;
+		mSnapshot = new AnalogSnapshot(reading);
+
+		StateImage image = mStateImage;
+		if (image == null) return;
+		ByteBuffer state = image.beginWrite();
+		try {
+			putReading(state);
+		} finally {
+			image.publish();
+		}
+	}
+
+	public int getReading() {
+		return mSnapshot.reading;
+	}
+
+	private void putReading(ByteBuffer state) {
+		int reading = mSnapshot.reading;
+		int register = register(mPort);
+		state.put(register, (byte)reading);
+		state.put(register + 1, (byte)(reading >> 8));
+	}
+
+	/**
+	 * What the sensor sees, in its own units, for the debug window.
+	 */
+	protected abstract String describe();
+
+	@Override
+	public AnalogSnapshot snapshot() {
+		return mSnapshot;
+	}
+
+//
+// GUI Routines
+//
+
+	public void populateDebugGuiVbox() {
+		if (mDebugLabel != null) mDebugLabel.setText(describe() + "  (" + mSnapshot.reading + ")");
+	}
+
+	public void setupDebugGuiVbox(VBox vbox) {
+		HBox hbox = new HBox();
+		hbox.setPadding(new Insets(5, 12, 5, 12));
+		hbox.setSpacing(10);
+
+		hbox.getChildren().add(new Text(getSimDataName() + " (S" + mPort + ")"));
+
+		mDebugLabel = new Label("label");
+		hbox.getChildren().add(mDebugLabel);
+		vbox.getChildren().add(hbox);
+	}
+}
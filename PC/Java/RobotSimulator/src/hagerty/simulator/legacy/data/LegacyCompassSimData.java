@@ -0,0 +1,110 @@
+package hagerty.simulator.legacy.data;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+
+/**
+ * A HiTechnic NXT compass, at I2C address 0x02.
+ *
+ *    0x00-0x17  version, manufacturer and sensor type strings
+ *    0x41       mode: 0x00 measure, 0x43 calibrate
+ *    0x42       heading / 2
+ *    0x43       heading % 2
+ *    0x44-0x45  heading, little endian
+ *
+ * Only the mode register is writable.  Calibration has nothing to do here, so it always succeeds.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public class LegacyCompassSimData extends LegacyI2cSensorSimData {
+
+	public static final int I2C_ADDRESS = 0x02;
+
+	public static final int REGISTER_MODE = 0x41;
+	public static final int REGISTER_TWO_DEGREE_HEADING = 0x42;
+
+	/**
+	 * The heading the compass reports.
+	 */
+	public static final class CompassSnapshot implements SimData.Snapshot {
+		public final int heading;
+
+		CompassSnapshot(int heading) {
+			this.heading = heading;
+		}
+	}
+
+	// Only replaced, never modified
+	volatile CompassSnapshot mSnapshot = new CompassSnapshot(0);
+
+	// GUI stuff for the Debug windows
+	private Label mDebugLabel;
+
+	public LegacyCompassSimData() {
+		super(SimDataType.LEGACY_COMPASS);
+		construct();
+		setString(0x00, "V1.0", 8);
+		setString(0x08, "HiTechnc", 8);
+		setString(0x10, "Compass ", 8);
+	}
+
+	@Override
+	protected void construct() {
+		System.out.println("Building Legacy Compass SimData");
+	}
+
+	@Override
+	public int getI2cAddress() {
+		return I2C_ADDRESS;
+	}
+
+	@Override
+	protected boolean isWritable(int register) {
+		return register == REGISTER_MODE;
+	}
+
+	/**
+	 * Set the heading in degrees clockwise from north.  It is reported in whole degrees, 0..359.
+	 */
+	public void setHeading(double degrees) {
+		int heading = (int)Math.floor(degrees) % 360;
+		if (heading < 0) heading += 360;
+		if (heading == mSnapshot.heading) return;
+		mSnapshot = new CompassSnapshot(heading);
+		setRegisters(REGISTER_TWO_DEGREE_HEADING, heading / 2, heading % 2, heading, heading >> 8);
+	}
+
+	public int getHeading() {
+		return mSnapshot.heading;
+	}
+
+	@Override
+	public CompassSnapshot snapshot() {
+		return mSnapshot;
+	}
+
+//
+// GUI Routines
+//
+
+	public void populateDebugGuiVbox() {
+		if (mDebugLabel != null) mDebugLabel.setText(mSnapshot.heading + " deg");
+	}
+
+	public void setupDebugGuiVbox(VBox vbox) {
+		HBox hbox = new HBox();
+		hbox.setPadding(new Insets(5, 12, 5, 12));
+		hbox.setSpacing(10);
+
+		hbox.getChildren().add(new Text(getSimDataName() + " (S" + mPort + ")"));
+
+		mDebugLabel = new Label("label");
+		hbox.getChildren().add(mDebugLabel);
+		vbox.getChildren().add(hbox);
+	}
+}
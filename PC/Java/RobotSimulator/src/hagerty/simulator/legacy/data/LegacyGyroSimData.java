@@ -0,0 +1,44 @@
+package hagerty.simulator.legacy.data;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+/**
+ * A HiTechnic NXT gyro.  It reads about 620 at rest and changes by roughly one count per degree per
+ * second, up from there for clockwise rotation seen from above.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public class LegacyGyroSimData extends LegacyAnalogSensorSimData {
+
+	public static final int REST_READING = 620;
+	public static final double COUNTS_PER_DEGREE_PER_SECOND = 1.0;
+
+	private volatile double mRotationRate = 0.0;
+
+	public LegacyGyroSimData() {
+		super(SimDataType.LEGACY_GYRO, REST_READING);
+		construct();
+	}
+
+	@Override
+	protected void construct() {
+		System.out.println("Building Legacy Gyro SimData");
+	}
+
+	/**
+	 * Set the rate of turn in degrees per second, clockwise positive.
+	 */
+	public void setRotationRate(double degreesPerSecond) {
+		mRotationRate = degreesPerSecond;
+		setReading(REST_READING + (int)Math.round(degreesPerSecond * COUNTS_PER_DEGREE_PER_SECOND));
+	}
+
+	public double getRotationRate() {
+		return mRotationRate;
+	}
+
+	@Override
+	protected String describe() {
+		return String.format("%.1f deg/s", mRotationRate);
+	}
+}
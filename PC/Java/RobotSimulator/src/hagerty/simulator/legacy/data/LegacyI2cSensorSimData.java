@@ -0,0 +1,83 @@
+package hagerty.simulator.legacy.data;
+
+import java.nio.ByteBuffer;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+import hagerty.utils.StateImage;
+
+/**
+ * An I2C NXT sensor on a port of the Core Legacy Module.
+ *
+ * Each port has a 32 byte window in the module's image at 16 + 32 * port: mode, I2C address, first
+ * register, length, then the data.  The phone sets up a read window and the module keeps it filled
+ * with the device's registers.  Here the window is filled when the phone sets it up, and after that
+ * only the registers the sensor changes are copied into it.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public abstract class LegacyI2cSensorSimData extends I2cDeviceSimData implements LegacyPortHandler {
+
+	public LegacyI2cSensorSimData(SimDataType type) {
+		super(type);
+	}
+
+	/**
+	 * Offset of a port's window in the module's image.
+	 */
+	public static int window(int port) {
+		return PORT_BASE + PORT_SIZE * port;
+	}
+
+	public void i2cRead(int port, ByteBuffer state) {
+		int p = window(port);
+		if ((state.get(p + OFFSET_I2C_ADDRESS) & 0xff) != getI2cAddress()) return;
+		read(state.get(p + OFFSET_REGISTER) & 0xff, state, p + OFFSET_DATA, dataLength(state, p));
+	}
+
+	public void i2cWrite(int port, ByteBuffer state) {
+		int p = window(port);
+		if ((state.get(p + OFFSET_I2C_ADDRESS) & 0xff) != getI2cAddress()) return;
+		write(state.get(p + OFFSET_REGISTER) & 0xff, state, p + OFFSET_DATA, dataLength(state, p));
+	}
+
+	/**
+	 * Copy the changed registers that fall inside the port's read window into the image.
+	 */
+	@Override
+	protected void onRegistersChanged(int register, int count) {
+		StateImage image = mStateImage;
+		if (image == null) return;
+		ByteBuffer state = image.beginWrite();
+		try {
+			int p = window(mPort);
+			byte mode = state.get(p + OFFSET_MODE);
+			if ((mode & (MODE_I2C | MODE_READ)) != (byte)(MODE_I2C | MODE_READ)) return;
+			if ((state.get(p + OFFSET_I2C_ADDRESS) & 0xff) != getI2cAddress()) return;
+
+			int start = state.get(p + OFFSET_REGISTER) & 0xff;
+			int end = start + dataLength(state, p);
+			int first = Math.max(start, register);
+			int last = Math.min(end, register + count);
+			if (first < last) read(first, state, p + OFFSET_DATA + first - start, last - first);
+		} finally {
+			image.publish();
+		}
+	}
+
+	private static int dataLength(ByteBuffer state, int p) {
+		return Math.min(state.get(p + OFFSET_LENGTH) & 0xff, MAX_DATA);
+	}
+
+	/**
+	 * Fill a block of registers with an ASCII string, padded with zeros.  The HiTechnic and LEGO
+	 * sensors identify themselves this way.
+	 */
+	protected void setString(int register, String text, int width) {
+		int[] values = new int[width];
+		for (int i=0;i<width && i<text.length();i++) {
+			values[i] = text.charAt(i);
+		}
+		setRegisters(register, values);
+	}
+}
@@ -0,0 +1,144 @@
+package hagerty.simulator.legacy.data;
+
+import java.util.Arrays;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+
+/**
+ * A HiTechnic NXT IR Seeker V2, at I2C address 0x10.
+ *
+ *    0x00-0x17  version, manufacturer and sensor type strings
+ *    0x41       mode: 0x00 1200 Hz, 0x01 600 Hz
+ *    0x42       DC direction, then the five DC sensor strengths and their average
+ *    0x49       AC direction, then the five AC sensor strengths
+ *
+ * Direction 0 means no signal.  1..9 cover -120..+120 degrees in 30 degree steps, 5 straight ahead
+ * and negative to the left.  The five sensors face directions 1, 3, 5, 7 and 9.  A simulated beacon
+ * is seen the same way by the DC and AC blocks, whatever the mode.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public class LegacyIrSeekerSimData extends LegacyI2cSensorSimData {
+
+	public static final int I2C_ADDRESS = 0x10;
+
+	public static final int REGISTER_MODE = 0x41;
+	public static final int REGISTER_DC_DIRECTION = 0x42;
+	public static final int REGISTER_AC_DIRECTION = 0x49;
+
+	public static final int SENSORS = 5;
+	public static final double DEGREES_PER_DIRECTION = 30.0;
+	public static final double MAX_ANGLE = 135.0;
+
+	/**
+	 * The direction and strengths the seeker reports.
+	 */
+	public static final class IrSeekerSnapshot implements SimData.Snapshot {
+		public final int direction;
+		private final int[] strengths;
+
+		IrSeekerSnapshot(int direction, int[] strengths) {
+			this.direction = direction;
+			this.strengths = strengths;
+		}
+
+		public int strength(int sensor) {
+			return strengths[sensor];
+		}
+	}
+
+	// Only replaced, never modified
+	volatile IrSeekerSnapshot mSnapshot = new IrSeekerSnapshot(0, new int[SENSORS]);
+
+	// GUI stuff for the Debug windows
+	private Label mDebugLabel;
+
+	public LegacyIrSeekerSimData() {
+		super(SimDataType.LEGACY_IR_SEEKER);
+		construct();
+		setString(0x00, "V2.0", 8);
+		setString(0x08, "HiTechnc", 8);
+		setString(0x10, "NewIRDir", 8);
+	}
+
+	@Override
+	protected void construct() {
+		System.out.println("Building Legacy IR Seeker SimData");
+	}
+
+	@Override
+	public int getI2cAddress() {
+		return I2C_ADDRESS;
+	}
+
+	@Override
+	protected boolean isWritable(int register) {
+		return register == REGISTER_MODE;
+	}
+
+	/**
+	 * Set where the beacon is: its angle in degrees from straight ahead, clockwise positive, and its
+	 * strength, 0 (nothing) to 1 (as strong as the seeker reports).  A beacon behind the seeker, or one
+	 * with no strength, isn't seen.
+	 */
+	public void setBeacon(double angle, double strength) {
+		strength = Math.max(0.0, Math.min(1.0, strength));
+		int direction = 0;
+		int[] strengths = new int[SENSORS];
+		if (Math.abs(angle) <= MAX_ANGLE && strength > 0.0) {
+			direction = 5 + (int)Math.round(angle / DEGREES_PER_DIRECTION);
+			direction = Math.max(1, Math.min(9, direction));
+			for (int i=0;i<SENSORS;i++) {
+				double facing = (2 * i - 4) * DEGREES_PER_DIRECTION;
+				double response = Math.cos(Math.toRadians(angle - facing));
+				strengths[i] = response > 0.0 ? (int)Math.round(strength * response * 255) : 0;
+			}
+		}
+
+		int average = (strengths[0] + strengths[1] + strengths[2] + strengths[3] + strengths[4]) / SENSORS;
+
+		IrSeekerSnapshot snapshot = mSnapshot;
+		if (direction == snapshot.direction && Arrays.equals(strengths, snapshot.strengths)) return;
+		mSnapshot = new IrSeekerSnapshot(direction, strengths);
+		setRegisters(REGISTER_DC_DIRECTION, direction, strengths[0], strengths[1], strengths[2], strengths[3], strengths[4],
+				average, direction, strengths[0], strengths[1], strengths[2], strengths[3], strengths[4]);
+	}
+
+	public int getDirection() {
+		return mSnapshot.direction;
+	}
+
+	@Override
+	public IrSeekerSnapshot snapshot() {
+		return mSnapshot;
+	}
+
+//
+// GUI Routines
+//
+
+	public void populateDebugGuiVbox() {
+		if (mDebugLabel == null) return;
+		IrSeekerSnapshot snapshot = mSnapshot;
+		mDebugLabel.setText(String.format("direction %d  %d %d %d %d %d", snapshot.direction, snapshot.strengths[0],
+				snapshot.strengths[1], snapshot.strengths[2], snapshot.strengths[3], snapshot.strengths[4]));
+	}
+
+	public void setupDebugGuiVbox(VBox vbox) {
+		HBox hbox = new HBox();
+		hbox.setPadding(new Insets(5, 12, 5, 12));
+		hbox.setSpacing(10);
+
+		hbox.getChildren().add(new Text(getSimDataName() + " (S" + mPort + ")"));
+
+		mDebugLabel = new Label("label");
+		hbox.getChildren().add(mDebugLabel);
+		vbox.getChildren().add(hbox);
+	}
+}
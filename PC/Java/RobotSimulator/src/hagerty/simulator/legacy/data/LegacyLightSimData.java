@@ -0,0 +1,51 @@
+package hagerty.simulator.legacy.data;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+/**
+ * An NXT light sensor.  The output voltage falls as the light rises.  The SDK inverts the voltage and
+ * scales the part between 11.7% and 85.0% of full scale to 0..1, so setLightDetected does the reverse.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public class LegacyLightSimData extends LegacyAnalogSensorSimData {
+
+	// The range of the inverted voltage the SDK maps to 0..1, as fractions of 5 V
+	public static final double DARK_FRACTION = 0.11730205;
+	public static final double BRIGHT_FRACTION = 0.85043988;
+
+	private volatile double mLightDetected = 0.0;
+
+	public LegacyLightSimData() {
+		super(SimDataType.LEGACY_LIGHT, toReading(0.0));
+		construct();
+	}
+
+	@Override
+	protected void construct() {
+		System.out.println("Building Legacy Light SimData");
+	}
+
+	/**
+	 * Set the light the sensor sees, 0 (dark) to 1 (bright), as the SDK's getLightDetected reports it.
+	 */
+	public void setLightDetected(double light) {
+		light = Math.max(0.0, Math.min(1.0, light));
+		mLightDetected = light;
+		setReading(toReading(light));
+	}
+
+	public double getLightDetected() {
+		return mLightDetected;
+	}
+
+	private static int toReading(double light) {
+		double inverted = DARK_FRACTION + light * (BRIGHT_FRACTION - DARK_FRACTION);
+		return (int)Math.round((1.0 - inverted) * MAX_READING);
+	}
+
+	@Override
+	protected String describe() {
+		return String.format("light %.2f", mLightDetected);
+	}
+}
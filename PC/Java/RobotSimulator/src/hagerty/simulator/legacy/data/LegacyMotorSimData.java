@@ -1,5 +1,7 @@
 package hagerty.simulator.legacy.data;
 
+import java.nio.ByteBuffer;
+
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -15,13 +17,44 @@ import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
 
+import hagerty.utils.StateImage;
+
 @XmlAccessorType(XmlAccessType.NONE)
-public class LegacyMotorSimData extends SimData {
+public class LegacyMotorSimData extends SimData implements LegacyPortHandler {
+
+	/**
+	 * Motor speeds and float modes as set by the last write packet from the phone.
+	 */
+	public static final class MotorSnapshot implements SimData.Snapshot {
+		public final float motor1Speed;
+		public final float motor2Speed;
+		public final boolean motor1FloatMode;
+		public final boolean motor2FloatMode;
+
+		MotorSnapshot(float motor1Speed, float motor2Speed, boolean motor1FloatMode, boolean motor2FloatMode) {
+			this.motor1Speed = motor1Speed;
+			this.motor2Speed = motor2Speed;
+			this.motor1FloatMode = motor1FloatMode;
+			this.motor2FloatMode = motor2FloatMode;
+		}
+
+		boolean sameAs(float m1, float m2, boolean f1, boolean f2) {
+			return motor1Speed == m1 && motor2Speed == m2 && motor1FloatMode == f1 && motor2FloatMode == f2;
+		}
+	}
+
+	// Only replaced, never modified.  Written by the packet thread, read by anyone.
+	volatile MotorSnapshot mSnapshot = new MotorSnapshot(0.0f, 0.0f, false, false);
+
+	// Encoder counts from the physics backend, reported back to the phone in the port's I2C buffer
+	volatile int mMotor1Encoder=0;
+	volatile int mMotor2Encoder=0;
 
-	volatile float mMotor1Speed=0.0f;
-	volatile float mMotor2Speed=0.0f;
-	volatile boolean mMotor1FloatMode=false;
-	volatile boolean mMotor2FloatMode=false;
+	// HiTechnic motor controller registers
+	static final int REGISTER_MOTOR1_POWER = 0x45;
+	static final int REGISTER_MOTOR2_POWER = 0x46;
+	static final int REGISTER_MOTOR1_ENCODER = 0x4C;
+	static final int REGISTER_MOTOR2_ENCODER = 0x50;
 
 	// GUI stuff for the Debug windows
 	public Label mMotor1SpeedDebugLabel;
@@ -39,46 +72,80 @@ public class LegacyMotorSimData extends SimData {
 
 
 
-    public void processBuffer(int port, byte[] packet, byte[] mCurrentStateBuffer ) {
-        int p;
-
-        p=16+port*32;
-    	// This is for Port P0 only.  16 is the base offset.  Each port has 32 bytes.
-        // If I2C_ACTION is set, take some action
-//        if (packet[p+32] == (byte)0xff) { // Action flag
-            if ((packet[p] & (byte)0x01) == (byte)0x01) { // I2C Mode
-                if ((packet[p] & (byte)0x80) == (byte)0x80) { // Read mode
-                	// Copy this port's 32 bytes into buffer
-                	System.arraycopy(packet, p, mCurrentStateBuffer, p, 32);
-
-                } else { // Write mode
-                	// Copy this port's 32 bytes into buffer
-                	System.arraycopy(packet, p, mCurrentStateBuffer, p, 32);
-
-                	// Use the lock in the MotorData object to lock before write
-                	super.lock.writeLock().lock();
-                    try {
-	                	if (mCurrentStateBuffer[p+4+5] == (byte)0x80) {
-	                		mMotor1FloatMode=true;
-	                		mMotor1Speed=0.0f;
-	                	} else {
-		                	float m1 = (float)mCurrentStateBuffer[p+4+5]/100.0f;
-		                	mMotor1Speed=m1;
-	                	}
-
-	                	if (mCurrentStateBuffer[p+4+6] == (byte)0x80) {
-	                		mMotor2FloatMode=true;
-	                		mMotor2Speed=0.0f;
-	                	} else {
-		                	float m1 = (float)mCurrentStateBuffer[p+4+6]/100.0f;
-		                	mMotor2Speed=m1;
-	                	}
-                    } finally {
-                    	super.lock.writeLock().unlock();
-                    }
-                }
-
-            }
+    /**
+     * The phone set up a read of the controller's registers.  Answer with our encoder counts if they
+     * are in the window being read.
+     */
+    public void i2cRead(int port, ByteBuffer state) {
+    	putEncoders(state, PORT_BASE + PORT_SIZE * port);
+    }
+
+    /**
+     * The phone wrote the controller's registers.  Pick the motor powers out of the window.
+     */
+    public void i2cWrite(int port, ByteBuffer state) {
+    	int p = PORT_BASE + PORT_SIZE * port;
+    	float motor1Speed=0.0f;
+    	float motor2Speed=0.0f;
+    	boolean motor1FloatMode=false;
+    	boolean motor2FloatMode=false;
+
+    	if (state.get(p+4+5) == (byte)0x80) {
+    		motor1FloatMode=true;
+    	} else {
+    		motor1Speed = (float)state.get(p+4+5)/100.0f;
+    	}
+
+    	if (state.get(p+4+6) == (byte)0x80) {
+    		motor2FloatMode=true;
+    	} else {
+    		motor2Speed = (float)state.get(p+4+6)/100.0f;
+    	}
+
+    	// Publish both motors at once.  Most packets don't change anything, so skip the
+    	// allocation when they don't.
+    	if (!mSnapshot.sameAs(motor1Speed, motor2Speed, motor1FloatMode, motor2FloatMode)) {
+    		mSnapshot = new MotorSnapshot(motor1Speed, motor2Speed, motor1FloatMode, motor2FloatMode);
+    	}
+    }
+
+    /**
+     * Called by the physics backend with the latest encoder counts.  They are written into the module's
+     * memory image when they change.
+     */
+    public void setEncoderCounts(int motor1, int motor2) {
+    	if (motor1 == mMotor1Encoder && motor2 == mMotor2Encoder) return;
+    	mMotor1Encoder = motor1;
+    	mMotor2Encoder = motor2;
+
+    	StateImage image = mStateImage;
+    	if (image == null) return;
+    	ByteBuffer state = image.beginWrite();
+    	try {
+    		int p = PORT_BASE + PORT_SIZE * mPort;
+    		if ((state.get(p) & MODE_READ) == MODE_READ) { // only a read window holds encoder values
+    			putEncoders(state, p);
+    		}
+    	} finally {
+    		image.publish();
+    	}
+    }
+
+    /**
+     * Write the encoder registers that fall inside this port's I2C window.  The window starts at the
+     * register in byte 2 and is byte 3 bytes long.  Encoders are big endian.
+     */
+    private void putEncoders(ByteBuffer state, int p) {
+    	int start = state.get(p+2) & 0xff;
+    	int length = Math.min(state.get(p+3) & 0xff, MAX_DATA);
+    	putRegister32(state, p, start, length, REGISTER_MOTOR1_ENCODER, mMotor1Encoder);
+    	putRegister32(state, p, start, length, REGISTER_MOTOR2_ENCODER, mMotor2Encoder);
+    }
+
+    private static void putRegister32(ByteBuffer state, int p, int start, int length, int register, int value) {
+    	int offset = register - start;
+    	if (offset < 0 || offset + 4 > length) return;
+    	state.putInt(p + 4 + offset, value);  // ByteBuffers default to big endian
     }
 
 
@@ -87,9 +154,10 @@ public class LegacyMotorSimData extends SimData {
 //
 
 	public void populateDebugGuiVbox() {
-		mMotor1SpeedDebugLabel.setText("" + mMotor1Speed);
-		mMotor2SpeedDebugLabel.setText("" + mMotor2Speed);
-		//System.out.println("Populate Debug Gui VBox " + mMotor1Speed + " " + mMotor2Speed);
+		MotorSnapshot snapshot = mSnapshot;
+		mMotor1SpeedDebugLabel.setText("" + snapshot.motor1Speed);
+		mMotor2SpeedDebugLabel.setText("" + snapshot.motor2Speed);
+		//System.out.println("Populate Debug Gui VBox " + snapshot.motor1Speed + " " + snapshot.motor2Speed);
 	}
 
 	public void setupDebugGuiVbox(VBox vbox) {
@@ -128,19 +196,32 @@ public class LegacyMotorSimData extends SimData {
 	}
 
 
+	@Override
+	public MotorSnapshot snapshot() {
+		return mSnapshot;
+	}
+
+	public int getMotor1Encoder() {
+		return mMotor1Encoder;
+	}
+
+	public int getMotor2Encoder() {
+		return mMotor2Encoder;
+	}
+
 	public float getMotor1Speed() {
-		return mMotor1Speed;
+		return mSnapshot.motor1Speed;
 	}
 
 	public float getMotor2Speed() {
-		return mMotor2Speed;
+		return mSnapshot.motor2Speed;
 	}
 
 	public boolean getMotor1FloatMode() {
-		return mMotor1FloatMode;
+		return mSnapshot.motor1FloatMode;
 	}
 
 	public boolean getMotor2FloatMode() {
-		return mMotor2FloatMode;
+		return mSnapshot.motor2FloatMode;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package hagerty.simulator.legacy.data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Something on a Core Legacy Module port that acts on the I2C transactions the phone sets up in the
+ * port's 32 byte window.  The brick decides which ports the phone touched and what their mode asks
+ * for, copies the window into the back buffer of the module's image and then calls one of these.
+ */
+public interface LegacyPortHandler {
+
+	// Layout of a port's window in the module's image, as the SDK defines it
+	int PORT_BASE = 16;
+	int PORT_SIZE = 32;
+	int OFFSET_MODE = 0;
+	int OFFSET_I2C_ADDRESS = 1;
+	int OFFSET_REGISTER = 2;
+	int OFFSET_LENGTH = 3;
+	int OFFSET_DATA = 4;
+	int OFFSET_FLAG = 31;
+	int MAX_DATA = 27;
+
+	byte MODE_I2C = 0x01;
+	byte MODE_READ = (byte)0x80;
+	byte ACTION_FLAG = (byte)0xff;
+
+	/**
+	 * The phone set up a read.  Fill in the window's data from the device.
+	 */
+	void i2cRead(int port, ByteBuffer state);
+
+	/**
+	 * The phone wrote the window's data to the device.
+	 */
+	void i2cWrite(int port, ByteBuffer state);
+}
@@ -0,0 +1,38 @@
+package hagerty.simulator.legacy.data;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+/**
+ * An NXT touch sensor.  The switch pulls the input low when pressed; the SDK calls anything at or
+ * below 675 pressed.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public class LegacyTouchSimData extends LegacyAnalogSensorSimData {
+
+	public static final int PRESSED_READING = 180;
+	public static final int RELEASED_READING = MAX_READING;
+
+	public LegacyTouchSimData() {
+		super(SimDataType.LEGACY_TOUCH, RELEASED_READING);
+		construct();
+	}
+
+	@Override
+	protected void construct() {
+		System.out.println("Building Legacy Touch SimData");
+	}
+
+	public void setPressed(boolean pressed) {
+		setReading(pressed ? PRESSED_READING : RELEASED_READING);
+	}
+
+	public boolean isPressed() {
+		return getReading() == PRESSED_READING;
+	}
+
+	@Override
+	protected String describe() {
+		return isPressed() ? "pressed" : "released";
+	}
+}
@@ -0,0 +1,109 @@
+package hagerty.simulator.legacy.data;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+
+/**
+ * A LEGO NXT ultrasonic sensor, at I2C address 0x02.
+ *
+ *    0x00-0x17  version, manufacturer and sensor type strings
+ *    0x41       command
+ *    0x42       distance to the first echo in cm, 255 when there is none
+ *
+ * Only the command register is writable; the sensor always measures continuously.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public class LegacyUltrasonicSimData extends LegacyI2cSensorSimData {
+
+	public static final int I2C_ADDRESS = 0x02;
+
+	public static final int REGISTER_COMMAND = 0x41;
+	public static final int REGISTER_DISTANCE = 0x42;
+	public static final int NO_ECHO = 255;
+
+	/**
+	 * The distance the sensor reports.
+	 */
+	public static final class UltrasonicSnapshot implements SimData.Snapshot {
+		public final int distance;
+
+		UltrasonicSnapshot(int distance) {
+			this.distance = distance;
+		}
+	}
+
+	// Only replaced, never modified
+	volatile UltrasonicSnapshot mSnapshot = new UltrasonicSnapshot(NO_ECHO);
+
+	// GUI stuff for the Debug windows
+	private Label mDebugLabel;
+
+	public LegacyUltrasonicSimData() {
+		super(SimDataType.LEGACY_ULTRASONIC);
+		construct();
+		setString(0x00, "V1.0", 8);
+		setString(0x08, "LEGO", 8);
+		setString(0x10, "Sonar", 8);
+		setRegisters(REGISTER_DISTANCE, NO_ECHO);
+	}
+
+	@Override
+	protected void construct() {
+		System.out.println("Building Legacy Ultrasonic SimData");
+	}
+
+	@Override
+	public int getI2cAddress() {
+		return I2C_ADDRESS;
+	}
+
+	@Override
+	protected boolean isWritable(int register) {
+		return register == REGISTER_COMMAND;
+	}
+
+	/**
+	 * Set the distance to the nearest object in cm.  Anything out of range reads as no echo.
+	 */
+	public void setDistance(double cm) {
+		int distance = (cm < 0.0 || cm >= NO_ECHO) ? NO_ECHO : (int)Math.round(cm);
+		if (distance == mSnapshot.distance) return;
+		mSnapshot = new UltrasonicSnapshot(distance);
+		setRegisters(REGISTER_DISTANCE, distance);
+	}
+
+	public int getDistance() {
+		return mSnapshot.distance;
+	}
+
+	@Override
+	public UltrasonicSnapshot snapshot() {
+		return mSnapshot;
+	}
+
+//
+// GUI Routines
+//
+
+	public void populateDebugGuiVbox() {
+		if (mDebugLabel != null) mDebugLabel.setText(mSnapshot.distance + " cm");
+	}
+
+	public void setupDebugGuiVbox(VBox vbox) {
+		HBox hbox = new HBox();
+		hbox.setPadding(new Insets(5, 12, 5, 12));
+		hbox.setSpacing(10);
+
+		hbox.getChildren().add(new Text(getSimDataName() + " (S" + mPort + ")"));
+
+		mDebugLabel = new Label("label");
+		hbox.getChildren().add(mDebugLabel);
+		vbox.getChildren().add(hbox);
+	}
+}
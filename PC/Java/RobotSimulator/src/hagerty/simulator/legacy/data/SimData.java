@@ -1,6 +1,5 @@
 package hagerty.simulator.legacy.data;
 
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 
@@ -9,13 +8,25 @@ import javafx.beans.property.StringProperty;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.VBox;
 
+import hagerty.utils.StateImage;
+
 @XmlAccessorType(XmlAccessType.NONE)
 public abstract class SimData {
 
     protected StringProperty simDataName = null;
     private SimDataType mType=null;
 
-	public final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // The memory image of the brick this SimData is plugged into, and the port it is on
+    protected StateImage mStateImage = null;
+    protected int mPort = -1;
+
+	/**
+	 * An immutable value holding everything a SimData publishes.  Subclasses replace their snapshot
+	 * through a single volatile reference, so readers always see a consistent set of values without
+	 * taking a lock.
+	 */
+	public interface Snapshot {
+	}
 
 	public SimData(SimDataType type) {
 		mType=type;
@@ -32,6 +43,15 @@ public abstract class SimData {
 		this.simDataName = new SimpleStringProperty(name);
 	}
 
+	/**
+	 * Plug this SimData into a port of a brick so values produced by the simulator (encoders,
+	 * sensors) can be written into the brick's memory image.
+	 */
+	public void attach(StateImage stateImage, int port) {
+		mStateImage = stateImage;
+		mPort = port;
+	}
+
 	public SimDataType getType() {
 		return mType;
 	}
@@ -40,6 +60,11 @@ public abstract class SimData {
 		mType = type;
 	}
 
+	/**
+	 * Return the most recently published state.  Never blocks.
+	 */
+	abstract public Snapshot snapshot();
+
 	abstract public void setupDebugGuiVbox(VBox vbox);
 
 	abstract public void populateDebugGuiVbox();
@@ -11,12 +11,37 @@ public class SimDataFactory {
 			simData = new LegacyMotorSimData();
 			break;
 		case LEGACY_LIGHT:
+			simData = new LegacyLightSimData();
 			break;
 		case LEGACY_TOUCH:
+			simData = new LegacyTouchSimData();
+			break;
+		case LEGACY_GYRO:
+			simData = new LegacyGyroSimData();
+			break;
+		case LEGACY_COMPASS:
+			simData = new LegacyCompassSimData();
+			break;
+		case LEGACY_IR_SEEKER:
+			simData = new LegacyIrSeekerSimData();
+			break;
+		case LEGACY_ULTRASONIC:
+			simData = new LegacyUltrasonicSimData();
 			break;
 		case USB_MOTOR:
+			simData = new UsbMotorSimData();
 			break;
 		case USB_SERVO:
+			simData = new UsbServoSimData();
+			break;
+		case DIM_ANALOG:
+			simData = new AnalogInputSimData();
+			break;
+		case DIM_DIGITAL:
+			simData = new DigitalInputSimData();
+			break;
+		case DIM_I2C_COLOR:
+			simData = new I2cColorSensorSimData();
 			break;
 		default:
 			// throw exception
@@ -11,7 +11,14 @@ public enum SimDataType {
 	LEGACY_LIGHT("Light Sensor"),
 	LEGACY_TOUCH("Touch Sensor"),
 	USB_MOTOR("USB Motor Controller"),
-	USB_SERVO("USB Servo Controller");
+	USB_SERVO("USB Servo Controller"),
+	DIM_ANALOG("Analog Input"),
+	DIM_DIGITAL("Digital Input"),
+	DIM_I2C_COLOR("I2C Color Sensor"),
+	LEGACY_GYRO("Gyro Sensor"),
+	LEGACY_COMPASS("Compass Sensor"),
+	LEGACY_IR_SEEKER("IR Seeker"),
+	LEGACY_ULTRASONIC("Ultrasonic Sensor");
 
 	private final String mName;
 	SimDataType(String name) {
@@ -0,0 +1,330 @@
+package hagerty.simulator.legacy.data;
+
+import java.nio.ByteBuffer;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+import javafx.scene.text.Text;
+
+/**
+ * The two motors of a Modern Robotics USB (Core) Motor Controller, simulated at the register level.
+ *
+ * The controller's memory map is 94 bytes.  The phone reads and writes it by register address:
+ *
+ *    0x00-0x02  firmware version, manufacturer 'M', controller type 'M'
+ *    0x40-0x43  motor 1 target encoder value (big endian)
+ *    0x44       motor 1 mode          0x45  motor 1 power
+ *    0x46       motor 2 power         0x47  motor 2 mode
+ *    0x48-0x4B  motor 2 target encoder value
+ *    0x4C-0x4F  motor 1 current encoder value (read only)
+ *    0x50-0x53  motor 2 current encoder value (read only)
+ *    0x54-0x55  battery voltage: high 8 bits, then the low 2 bits, in units of 20 mV (read only)
+ *    0x56-0x59  motor 1 gear ratio, P, I, D
+ *    0x5A-0x5D  motor 2 gear ratio, P, I, D
+ *
+ * Mode bits 0-1 select the run mode (power only, constant speed, run to position, reset encoder),
+ * 0x08 reverses the motor and 0x80 is the busy flag, set by the controller while a run to position
+ * or an encoder reset is in progress.  Power is -100..100, or -128 to let the motor float.
+ *
+ * Each motor is a first order DC motor whose speed is integrated into its encoder count every time
+ * the model is stepped, from simulation clock time, so the phone sees encoders move at a realistic
+ * rate however fast it polls.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public class UsbMotorSimData extends SimData {
+
+	public static final int MEMORY_SIZE = 94;
+
+	// Registers
+	public static final int REGISTER_VERSION = 0x00;
+	public static final int REGISTER_MANUFACTURER = 0x01;
+	public static final int REGISTER_CONTROLLER_TYPE = 0x02;
+	static final int[] REGISTER_TARGET = { 0x40, 0x48 };
+	static final int[] REGISTER_MODE = { 0x44, 0x47 };
+	static final int[] REGISTER_POWER = { 0x45, 0x46 };
+	static final int[] REGISTER_ENCODER = { 0x4C, 0x50 };
+	static final int REGISTER_BATTERY = 0x54;
+	static final int[] REGISTER_GEAR_RATIO = { 0x56, 0x5A };
+
+	// Mode bits
+	public static final int MODE_RUN_WITHOUT_ENCODER = 0x00;
+	public static final int MODE_RUN_USING_ENCODER = 0x01;
+	public static final int MODE_RUN_TO_POSITION = 0x02;
+	public static final int MODE_RESET_ENCODER = 0x03;
+	static final int MODE_SELECT_MASK = 0x03;
+	static final int MODE_REVERSE = 0x08;
+	static final int MODE_BUSY = 0x80;
+
+	static final byte POWER_FLOAT = (byte)0x80;
+
+	// Motor model.  Defaults are close to a Tetrix motor with its 1440 count encoder.
+	public static final double MAX_COUNTS_PER_SECOND = 3600;     // ~150 rpm at full power
+	public static final double NOMINAL_BATTERY_VOLTS = 12.0;
+	public static final double MOTOR_TIME_CONSTANT_S = 0.08;      // power only, or braking
+	public static final double REGULATED_TIME_CONSTANT_S = 0.03;  // speed loop of the controller
+	public static final double COAST_TIME_CONSTANT_S = 0.5;       // float
+	public static final double MAX_STEP_S = 0.001;
+	public static final double MAX_CATCH_UP_S = 0.25;             // longer gaps are skipped
+	public static final int POSITION_TOLERANCE = 10;              // counts
+	public static final double POSITION_GAIN = 10.0;              // 1/s, speed = gain * error
+
+	/**
+	 * What the phone has asked of both motors, and where they are.
+	 */
+	public static final class UsbMotorSnapshot implements SimData.Snapshot {
+		public final float[] power;       // -1..1, 0 when floating
+		public final int[] mode;          // run mode, MODE_SELECT_MASK bits
+		public final boolean[] floating;
+		public final boolean[] busy;
+		public final int[] encoder;
+		public final int[] target;
+		public final double batteryVolts;
+
+		UsbMotorSnapshot(float[] power, int[] mode, boolean[] floating, boolean[] busy, int[] encoder, int[] target,
+				double batteryVolts) {
+			this.power = power;
+			this.mode = mode;
+			this.floating = floating;
+			this.busy = busy;
+			this.encoder = encoder;
+			this.target = target;
+			this.batteryVolts = batteryVolts;
+		}
+	}
+
+	// Model state, owned by the brick's packet thread
+	private final double[] mSpeed = new double[2];      // counts/s, in the encoder's direction
+	private final double[] mPosition = new double[2];   // counts
+	private long mLastStepNanos = -1;
+
+	private volatile double mBatteryVolts = 12.8;
+
+	// Only replaced, never modified.  Written by the packet thread, read by anyone.
+	volatile UsbMotorSnapshot mSnapshot = new UsbMotorSnapshot(new float[2], new int[2], new boolean[2],
+			new boolean[2], new int[2], new int[2], 12.8);
+
+	// GUI stuff for the Debug windows
+	private final Label[] mDebugLabels = new Label[2];
+
+	public UsbMotorSimData() {
+		super(SimDataType.USB_MOTOR);
+		construct();
+	}
+
+	@Override
+	protected void construct() {
+		System.out.println("Building USB Motor SimData");
+	}
+
+	/**
+	 * Fill in the registers that read the same until something changes them.
+	 */
+	public void initializeImage(ByteBuffer state) {
+		state.put(REGISTER_VERSION, (byte)0x01);
+		state.put(REGISTER_MANUFACTURER, (byte)'M');
+		state.put(REGISTER_CONTROLLER_TYPE, (byte)'M');
+		for (int motor=0;motor<2;motor++) {
+			state.put(REGISTER_GEAR_RATIO[motor], (byte)0);
+			state.put(REGISTER_GEAR_RATIO[motor]+1, (byte)0x80);  // P
+			state.put(REGISTER_GEAR_RATIO[motor]+2, (byte)0x40);  // I
+			state.put(REGISTER_GEAR_RATIO[motor]+3, (byte)0xB8);  // D
+		}
+		putBattery(state);
+	}
+
+	/**
+	 * Apply a register write from the phone.  Read only registers are left alone.
+	 *
+	 * @param state the back buffer of the controller's image
+	 * @param address first register written
+	 * @param data the bytes, from its position; the position is left unchanged
+	 */
+	public void processWrite(ByteBuffer state, int address, ByteBuffer data, int length) {
+		int[] oldMode = { state.get(REGISTER_MODE[0]) & 0xff, state.get(REGISTER_MODE[1]) & 0xff };
+
+		int start = data.position();
+		for (int i=0;i<length;i++) {
+			int register = address + i;
+			if (register >= MEMORY_SIZE) break;
+			if (isReadOnly(register)) continue;
+			state.put(register, data.get(start + i));
+		}
+
+		for (int motor=0;motor<2;motor++) {
+			int mode = state.get(REGISTER_MODE[motor]) & 0xff;
+			int select = mode & MODE_SELECT_MASK;
+			if (select == (oldMode[motor] & MODE_SELECT_MASK) && (mode & MODE_BUSY) == (oldMode[motor] & MODE_BUSY)) continue;
+
+			// A new run mode.  The phone never sets busy itself; the controller does.
+			mode &= ~MODE_BUSY;
+			if (select == MODE_RUN_TO_POSITION || select == MODE_RESET_ENCODER) mode |= MODE_BUSY;
+			state.put(REGISTER_MODE[motor], (byte)mode);
+		}
+		publishSnapshot(state);
+	}
+
+	private static boolean isReadOnly(int register) {
+		return register < 0x40
+				|| (register >= REGISTER_ENCODER[0] && register < REGISTER_ENCODER[1] + 4)
+				|| register == REGISTER_BATTERY || register == REGISTER_BATTERY + 1;
+	}
+
+	/**
+	 * Run the motors up to the given simulation time and write the encoders, busy flags and battery
+	 * voltage into the image.
+	 */
+	public void step(ByteBuffer state, long nowNanos) {
+		if (mLastStepNanos < 0) mLastStepNanos = nowNanos;
+		double seconds = Math.min((nowNanos - mLastStepNanos) / 1e9, MAX_CATCH_UP_S);
+		mLastStepNanos = nowNanos;
+
+		for (int motor=0;motor<2;motor++) {
+			stepMotor(state, motor, seconds);
+		}
+		putBattery(state);
+		publishSnapshot(state);
+	}
+
+	private void stepMotor(ByteBuffer state, int motor, double seconds) {
+		int mode = state.get(REGISTER_MODE[motor]) & 0xff;
+		int select = mode & MODE_SELECT_MASK;
+		byte rawPower = state.get(REGISTER_POWER[motor]);
+		boolean floating = rawPower == POWER_FLOAT;
+		double power = floating ? 0.0 : Math.max(-1.0, Math.min(1.0, rawPower / 100.0));
+		double direction = (mode & MODE_REVERSE) != 0 ? -1.0 : 1.0;
+
+		if (select == MODE_RESET_ENCODER) {
+			mSpeed[motor] = 0;
+			mPosition[motor] = 0;
+			state.put(REGISTER_MODE[motor], (byte)(mode & ~MODE_BUSY));
+			state.putInt(REGISTER_ENCODER[motor], 0);
+			return;
+		}
+
+		int target = state.getInt(REGISTER_TARGET[motor]);
+		double volts = mBatteryVolts / NOMINAL_BATTERY_VOLTS;
+
+		// Fixed small steps, so run to position settles the same however often the phone polls
+		double remaining = seconds;
+		while (remaining > 1e-9) {
+			double dt = Math.min(MAX_STEP_S, remaining);
+			remaining -= dt;
+
+			double targetSpeed;
+			double tau;
+			switch (select) {
+			case MODE_RUN_USING_ENCODER:
+				targetSpeed = direction * power * MAX_COUNTS_PER_SECOND;
+				tau = REGULATED_TIME_CONSTANT_S;
+				break;
+			case MODE_RUN_TO_POSITION:
+				double limit = Math.abs(power) * MAX_COUNTS_PER_SECOND;
+				targetSpeed = Math.max(-limit, Math.min(limit, POSITION_GAIN * (target - mPosition[motor])));
+				tau = REGULATED_TIME_CONSTANT_S;
+				break;
+			default:
+				targetSpeed = direction * power * MAX_COUNTS_PER_SECOND * volts;
+				tau = MOTOR_TIME_CONSTANT_S;
+				break;
+			}
+			if (floating) {
+				targetSpeed = 0.0;
+				tau = COAST_TIME_CONSTANT_S;
+			}
+
+			mSpeed[motor] += (targetSpeed - mSpeed[motor]) * (1.0 - Math.exp(-dt / tau));
+			mPosition[motor] += mSpeed[motor] * dt;
+		}
+
+		int encoder = (int)Math.round(mPosition[motor]);
+		state.putInt(REGISTER_ENCODER[motor], encoder);
+
+		if (select == MODE_RUN_TO_POSITION) {
+			boolean busy = Math.abs(target - encoder) > POSITION_TOLERANCE;
+			state.put(REGISTER_MODE[motor], (byte)(busy ? mode | MODE_BUSY : mode & ~MODE_BUSY));
+		}
+	}
+
+	private void putBattery(ByteBuffer state) {
+		int units = (int)Math.round(mBatteryVolts / 0.020);
+		units = Math.max(0, Math.min(0x3FF, units));
+		state.put(REGISTER_BATTERY, (byte)(units >> 2));
+		state.put(REGISTER_BATTERY + 1, (byte)(units & 0x03));
+	}
+
+	private void publishSnapshot(ByteBuffer state) {
+		float[] power = new float[2];
+		int[] mode = new int[2];
+		boolean[] floating = new boolean[2];
+		boolean[] busy = new boolean[2];
+		int[] encoder = new int[2];
+		int[] target = new int[2];
+		for (int motor=0;motor<2;motor++) {
+			byte rawPower = state.get(REGISTER_POWER[motor]);
+			floating[motor] = rawPower == POWER_FLOAT;
+			power[motor] = floating[motor] ? 0.0f : rawPower / 100.0f;
+			int rawMode = state.get(REGISTER_MODE[motor]) & 0xff;
+			mode[motor] = rawMode & MODE_SELECT_MASK;
+			busy[motor] = (rawMode & MODE_BUSY) != 0;
+			encoder[motor] = state.getInt(REGISTER_ENCODER[motor]);
+			target[motor] = state.getInt(REGISTER_TARGET[motor]);
+		}
+		mSnapshot = new UsbMotorSnapshot(power, mode, floating, busy, encoder, target, mBatteryVolts);
+	}
+
+	public void setBatteryVoltage(double volts) {
+		mBatteryVolts = volts;
+	}
+
+	public double getBatteryVoltage() {
+		return mBatteryVolts;
+	}
+
+	@Override
+	public UsbMotorSnapshot snapshot() {
+		return mSnapshot;
+	}
+
+//
+// GUI Routines
+//
+
+	public void populateDebugGuiVbox() {
+		UsbMotorSnapshot snapshot = mSnapshot;
+		for (int motor=0;motor<2;motor++) {
+			if (mDebugLabels[motor] == null) continue;
+			mDebugLabels[motor].setText(String.format("power %.2f%s  mode %d%s  encoder %d  target %d",
+					snapshot.power[motor], snapshot.floating[motor] ? " (float)" : "", snapshot.mode[motor],
+					snapshot.busy[motor] ? " busy" : "", snapshot.encoder[motor], snapshot.target[motor]));
+		}
+	}
+
+	public void setupDebugGuiVbox(VBox vbox) {
+		vbox.setPadding(new Insets(10));
+		vbox.setSpacing(8);
+
+		Text title = new Text(getSimDataName());
+		title.setFont(Font.font("Arial", FontWeight.BOLD, 14));
+		vbox.getChildren().add(title);
+
+		for (int motor=0;motor<2;motor++) {
+			HBox hbox = new HBox();
+			hbox.setPadding(new Insets(5, 12, 5, 12));
+			hbox.setSpacing(10);
+
+			Text motorText = new Text("Motor " + (motor+1));
+			hbox.getChildren().add(motorText);
+
+			mDebugLabels[motor] = new Label("label");
+			hbox.getChildren().add(mDebugLabels[motor]);
+			vbox.getChildren().add(hbox);
+		}
+	}
+}
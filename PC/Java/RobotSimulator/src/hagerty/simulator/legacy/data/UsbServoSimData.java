@@ -0,0 +1,241 @@
+package hagerty.simulator.legacy.data;
+
+import java.nio.ByteBuffer;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+import hagerty.simulator.RobotSimulator;
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+import javafx.scene.text.Text;
+
+/**
+ * The six servos of a Modern Robotics USB (Core) Servo Controller, simulated at the register level.
+ *
+ *    0x00-0x02  firmware version, manufacturer 'M', controller type 'S'
+ *    0x40       status (unused)       0x41  PWM step time
+ *    0x42-0x47  channel 1-6 position, 0..255
+ *    0x48       PWM control: 0x00 enabled, 0xAA enabled without timeout, 0xFF disabled
+ *
+ * The phone only ever reads the 9 byte block at 0x40.  The brick's image holds that block already
+ * formatted as a read reply, header first, so a read is answered by sending the image as is:
+ *
+ *    0x33 0xCC 0x80 0x40 9  registers 0x40..0x48
+ *
+ * A servo does not jump to a new position.  It moves towards it at the slew rate (by default full
+ * travel in about half a second, like a standard hobby servo) from the moment the position was
+ * written.  The snapshot holds where each move started and when, so anyone can work out where a
+ * servo is at any time without the brick having to step the model.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public class UsbServoSimData extends SimData {
+
+	public static final int CHANNELS = 6;
+
+	// Registers
+	public static final int REGISTER_VERSION = 0x00;
+	public static final int REGISTER_MANUFACTURER = 0x01;
+	public static final int REGISTER_CONTROLLER_TYPE = 0x02;
+	public static final int REGISTER_START = 0x40;
+	public static final int REGISTER_STEP_TIME = 0x41;
+	public static final int REGISTER_CHANNEL1 = 0x42;
+	public static final int REGISTER_PWM = 0x48;
+	public static final int MEMORY_SIZE = REGISTER_PWM + 1;
+
+	static final byte PWM_ENABLE = 0x00;
+	static final byte PWM_ENABLE_WITHOUT_TIMEOUT = (byte)0xAA;
+	static final byte PWM_DISABLE = (byte)0xFF;
+
+	// The preformatted reply to a read of the monitor block
+	public static final int HEADER_LENGTH = 5;
+	public static final int MONITOR_LENGTH = MEMORY_SIZE - REGISTER_START;
+	public static final int REPLY_LENGTH = HEADER_LENGTH + MONITOR_LENGTH;
+	private static final byte[] REPLY_HEADER = { 0x33, (byte)0xCC, (byte)0x80, REGISTER_START, MONITOR_LENGTH };
+
+	// Registers below the monitor block, which never change
+	private static final byte[] FIXED_REGISTERS = { 0x01, 'M', 'S' };
+
+	// Full travel, position 0 to 1, takes 1/SLEW_PER_SECOND seconds
+	public static final double DEFAULT_SLEW_PER_SECOND = 2.0;
+
+	/**
+	 * Where each servo was told to go, and where it was when it was told.
+	 */
+	public static final class ServoSnapshot implements SimData.Snapshot {
+		public final double[] target;       // 0..1
+		public final double[] start;        // 0..1, position when the move began
+		public final long[] startNanos;     // simulation clock time the move began
+		public final boolean pwmEnabled;
+		public final double slewPerSecond;
+
+		ServoSnapshot(double[] target, double[] start, long[] startNanos, boolean pwmEnabled, double slewPerSecond) {
+			this.target = target;
+			this.start = start;
+			this.startNanos = startNanos;
+			this.pwmEnabled = pwmEnabled;
+			this.slewPerSecond = slewPerSecond;
+		}
+
+		/**
+		 * Position of a servo, 0..1, at a simulation clock time.
+		 */
+		public double position(int channel, long nowNanos) {
+			double travel = slewPerSecond * Math.max(0, nowNanos - startNanos[channel]) / 1e9;
+			double distance = target[channel] - start[channel];
+			if (Math.abs(distance) <= travel) return target[channel];
+			return start[channel] + Math.copySign(travel, distance);
+		}
+
+		/**
+		 * True once every servo has reached its target.
+		 */
+		public boolean isSettled(long nowNanos) {
+			for (int channel=0;channel<CHANNELS;channel++) {
+				if (position(channel, nowNanos) != target[channel]) return false;
+			}
+			return true;
+		}
+	}
+
+	private volatile double mSlewPerSecond = DEFAULT_SLEW_PER_SECOND;
+
+	// Only replaced, never modified.  Written by the packet thread, read by anyone.
+	volatile ServoSnapshot mSnapshot = new ServoSnapshot(new double[CHANNELS], new double[CHANNELS],
+			new long[CHANNELS], false, DEFAULT_SLEW_PER_SECOND);
+
+	// GUI stuff for the Debug windows
+	private final Label[] mDebugLabels = new Label[CHANNELS];
+
+	public UsbServoSimData() {
+		super(SimDataType.USB_SERVO);
+		construct();
+	}
+
+	@Override
+	protected void construct() {
+		System.out.println("Building USB Servo SimData");
+	}
+
+	/**
+	 * Index of a register in the brick's image, or -1 if it isn't in the monitor block.
+	 */
+	public static int imageOffset(int register) {
+		if (register < REGISTER_START || register >= MEMORY_SIZE) return -1;
+		return HEADER_LENGTH + register - REGISTER_START;
+	}
+
+	/**
+	 * Format the image: the reply header, then the registers as they are at power up.
+	 */
+	public void initializeImage(ByteBuffer state) {
+		for (int i=0;i<HEADER_LENGTH;i++) {
+			state.put(i, REPLY_HEADER[i]);
+		}
+		state.put(imageOffset(REGISTER_PWM), PWM_DISABLE);
+	}
+
+	/**
+	 * Read a register, whether it is in the image or not.
+	 */
+	public static byte readRegister(ByteBuffer state, int register) {
+		int offset = imageOffset(register);
+		if (offset >= 0) return state.get(offset);
+		if (register < FIXED_REGISTERS.length) return FIXED_REGISTERS[register];
+		return 0;
+	}
+
+	/**
+	 * Apply a register write from the phone.  Only the monitor block is writable; a new channel
+	 * position starts a move from wherever that servo is now.
+	 *
+	 * @param state the back buffer of the brick's image
+	 * @param address first register written
+	 * @param data the bytes, from its position; the position is left unchanged
+	 * @param nowNanos simulation clock time of the write
+	 */
+	public void processWrite(ByteBuffer state, int address, ByteBuffer data, int length, long nowNanos) {
+		ServoSnapshot old = mSnapshot;
+		int start = data.position();
+		for (int i=0;i<length;i++) {
+			int offset = imageOffset(address + i);
+			if (offset < 0) continue;
+			state.put(offset, data.get(start + i));
+		}
+
+		double[] target = new double[CHANNELS];
+		double[] from = new double[CHANNELS];
+		long[] fromNanos = new long[CHANNELS];
+		double slewPerSecond = mSlewPerSecond;
+		boolean changed = slewPerSecond != old.slewPerSecond;
+		for (int channel=0;channel<CHANNELS;channel++) {
+			target[channel] = (state.get(imageOffset(REGISTER_CHANNEL1 + channel)) & 0xff) / 255.0;
+			if (target[channel] == old.target[channel] && slewPerSecond == old.slewPerSecond) {
+				from[channel] = old.start[channel];
+				fromNanos[channel] = old.startNanos[channel];
+			} else {
+				from[channel] = old.position(channel, nowNanos);
+				fromNanos[channel] = nowNanos;
+				changed = true;
+			}
+		}
+
+		boolean enabled = state.get(imageOffset(REGISTER_PWM)) != PWM_DISABLE;
+		if (changed || enabled != old.pwmEnabled) {
+			mSnapshot = new ServoSnapshot(target, from, fromNanos, enabled, slewPerSecond);
+		}
+	}
+
+	public void setSlewPerSecond(double slewPerSecond) {
+		mSlewPerSecond = slewPerSecond;
+	}
+
+	public double getSlewPerSecond() {
+		return mSlewPerSecond;
+	}
+
+	@Override
+	public ServoSnapshot snapshot() {
+		return mSnapshot;
+	}
+
+//
+// GUI Routines
+//
+
+	public void populateDebugGuiVbox() {
+		ServoSnapshot snapshot = mSnapshot;
+		long now = RobotSimulator.getClock().nanoTime();
+		for (int channel=0;channel<CHANNELS;channel++) {
+			if (mDebugLabels[channel] == null) continue;
+			mDebugLabels[channel].setText(String.format("position %.2f  target %.2f%s",
+					snapshot.position(channel, now), snapshot.target[channel], snapshot.pwmEnabled ? "" : "  (PWM off)"));
+		}
+	}
+
+	public void setupDebugGuiVbox(VBox vbox) {
+		vbox.setPadding(new Insets(10));
+		vbox.setSpacing(8);
+
+		Text title = new Text(getSimDataName());
+		title.setFont(Font.font("Arial", FontWeight.BOLD, 14));
+		vbox.getChildren().add(title);
+
+		for (int channel=0;channel<CHANNELS;channel++) {
+			HBox hbox = new HBox();
+			hbox.setPadding(new Insets(5, 12, 5, 12));
+			hbox.setSpacing(10);
+
+			Text servoText = new Text("Servo " + (channel+1));
+			hbox.getChildren().add(servoText);
+
+			mDebugLabels[channel] = new Label("label");
+			hbox.getChildren().add(mDebugLabels[channel]);
+			vbox.getChildren().add(hbox);
+		}
+	}
+}
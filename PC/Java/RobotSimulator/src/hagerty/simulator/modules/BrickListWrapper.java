@@ -2,6 +2,8 @@ package hagerty.simulator.modules;
 
 import java.util.List;
 
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
 import javax.xml.bind.annotation.XmlElementRef;
 import javax.xml.bind.annotation.XmlRootElement;
 
@@ -16,8 +18,23 @@ import javax.xml.bind.annotation.XmlRootElement;
 @XmlRootElement(name = "bricks")
 public class BrickListWrapper {
 
+    private static JAXBContext gContext;
+
     private List<BrickSimulator> bricks;
 
+    /**
+     * The JAXB context for brick lists, shared by file load/save and the brick list generator.
+     * Building a context is very slow, so it is built once, on first use.  JAXBContext is thread safe,
+     * Marshallers and Unmarshallers made from it are not.
+     */
+    public static synchronized JAXBContext getContext() throws JAXBException {
+        if (gContext == null) {
+            gContext = JAXBContext.newInstance(BrickListWrapper.class, LegacyBrickSimulator.class, MotorBrickSimulator.class, ServoBrickSimulator.class,
+            		DeviceInterfaceBrickSimulator.class );
+        }
+        return gContext;
+    }
+
     @XmlElementRef(name = "brick")
     public List<BrickSimulator> getBricks() {
         return bricks;
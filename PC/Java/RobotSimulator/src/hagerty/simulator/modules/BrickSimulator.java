@@ -1,22 +1,27 @@
 package hagerty.simulator.modules;
 
+import javafx.beans.Observable;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.VBox;
+import javafx.util.Callback;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 
 import hagerty.simulator.legacy.data.*;
+import hagerty.utils.ByteBufferPool;
 
 /**
  * Model class for a Motor Controller, called "Brick" to avoid confusion with "Controller"
@@ -30,12 +35,16 @@ public abstract class BrickSimulator implements Runnable {
     protected IntegerProperty mPort;
     protected final StringProperty serial;
 
+    // Bumped whenever the port configuration (anything not covered by the properties above) changes
+    protected final IntegerProperty mConfigRevision = new SimpleIntegerProperty(0);
+
     int mPhonePort;
     InetAddress mPhoneIPAddress;
-    DatagramSocket mServerSocket;
+    InetSocketAddress mPhoneAddress;
+    DatagramChannel mChannel;
 
-    byte[] mReceiveData = new byte[1024];
-    byte[] mSendData = new byte[1024];
+    // Receive and send buffers are recycled so a read-request/response round trip allocates nothing
+    protected final ByteBufferPool mBufferPool = new ByteBufferPool(4, 1024);
 
     /** Default Constructor.
      *
@@ -47,48 +56,101 @@ public abstract class BrickSimulator implements Runnable {
     }
 
 
+    /**
+     * Thread per brick fallback.  Opens a blocking channel on our port and handles packets until
+     * the channel is closed.  Normally the bricks are served by the BrickReactor instead.
+     */
     @Override
     public void run() {
-    	byte[] packet;
         try {
-        	mServerSocket = new DatagramSocket(mPort.intValue());
+        	// Attach before binding so a failed bind still gets the channel closed below
+        	attachChannel(DatagramChannel.open());
+        	mChannel.socket().bind(new InetSocketAddress(mPort.intValue()));
 
             while (true) {
-            	packet = receivePacketFromPhone();
-            	handleIncomingPacket(packet, packet.length, false);
+            	if (!receivePacketFromPhone()) break;
             }
             // Catch unhandled exceptions and cleanup
     	} catch (Exception e) {
     		e.printStackTrace();
+    	} finally {
+    		// The loop also ends on a receive error; either way release the port
     		close();
     	}
     }
 
-    private byte[] receivePacketFromPhone() {
+    /**
+     * Hand this brick the channel for its port.  It is either owned by the BrickReactor (non-blocking)
+     * or opened by run() (blocking).
+     */
+    public void attachChannel(DatagramChannel channel) {
+    	mChannel = channel;
+    }
 
-    	DatagramPacket receivePacket = new DatagramPacket(mReceiveData, mReceiveData.length);
+    /**
+     * Receive one packet from the phone into a pooled buffer and handle it.
+     *
+     * @return true if a packet was handled, false if the channel had nothing for us (non-blocking
+     * mode) or could not be read
+     */
+    public boolean receivePacketFromPhone() {
+    	ByteBuffer packet = mBufferPool.acquire();
     	try {
-    		mServerSocket.receive(receivePacket);
+    		SocketAddress from;
+    		try {
+    			from = mChannel.receive(packet);
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    			return false;
+    		}
+    		if (from == null) return false;
+
+    		// Get the port and address of the sender from the incoming packet to be used when we reply back.
+    		// Only touch them when the phone has actually moved.
+    		if (!from.equals(mPhoneAddress)) {
+    			mPhoneAddress = (InetSocketAddress) from;
+    			mPhonePort = mPhoneAddress.getPort();
+    			mPhoneIPAddress = mPhoneAddress.getAddress();
+    		}
+
+    		// Hand the subclass a view of just the received bytes, position 0 to limit length
+    		packet.flip();
+    		handleIncomingPacket(packet, packet.remaining(), false);
+    		return true;
+    	} finally {
+    		mBufferPool.release(packet);
+    	}
+    }
+
+    /**
+     * Send a reply to the phone.  The buffer is sent from its position to its limit.
+     */
+    protected void sendPacketToPhone(ByteBuffer sendData) {
+    	try {
+    		mChannel.send(sendData, mPhoneAddress);
+        	//System.out.println("sendPacketToPhone: len=" + sendData.limit());
         } catch (IOException e) {
             e.printStackTrace();
         }
+    }
 
-    	// Get the port and address of the sender from the incoming packet and set some global variables
-    	// to be used when we reply back.
-    	// TODO: do we need to set this every time?
-    	mPhonePort = receivePacket.getPort();
-    	mPhoneIPAddress = receivePacket.getAddress();
-
-    	// Make a copy of the packet.  Not sure if we need to do this.  Might not hold on to it for long.
-    	byte[] mypacket = new byte[receivePacket.getLength()];
-    	System.arraycopy(receivePacket.getData(), 0, mypacket, 0, receivePacket.getLength());
-
-    	return mypacket;
+    /**
+     * Copy a reply into a pooled buffer and send it to the phone.
+     */
+    protected void sendPacketToPhone(byte[] sendData, int offset, int length) {
+    	ByteBuffer buffer = mBufferPool.acquire();
+    	try {
+    		buffer.put(sendData, offset, length);
+    		buffer.flip();
+    		sendPacketToPhone(buffer);
+    	} finally {
+    		mBufferPool.release(buffer);
+    	}
     }
 
     public void close() {
     	try {
-    		mServerSocket.close();
+    		if (mChannel != null) mChannel.close();
     	} catch (Exception ex) {
     		System.out.println("An error occurred while closing!");
     		ex.printStackTrace();
@@ -106,7 +168,11 @@ public abstract class BrickSimulator implements Runnable {
 
 	public abstract SimData findSimDataName(String name);
 
-	public abstract void handleIncomingPacket(byte[] data, int length, boolean wait);
+	/**
+	 * Handle one packet from the phone.  The buffer is only valid for the duration of the call; the
+	 * packet runs from index 0 to length and the buffer must not be kept.
+	 */
+	public abstract void handleIncomingPacket(ByteBuffer data, int length, boolean wait);
 
 
 
@@ -149,6 +215,26 @@ public abstract class BrickSimulator implements Runnable {
         return serial;
     }
 
+    public IntegerProperty portProperty() {
+        return mPort;
+    }
+
+    public IntegerProperty configRevisionProperty() {
+        return mConfigRevision;
+    }
+
+    /**
+     * Extractor for an ObservableList of bricks, so list listeners also hear about changes made to
+     * the bricks in the list (see MainApp.getBrickData()).
+     */
+    public static Callback<BrickSimulator, Observable[]> extractor() {
+        return new Callback<BrickSimulator, Observable[]>() {
+            public Observable[] call(BrickSimulator brick) {
+                return new Observable[] { brick.alias, brick.mPort, brick.serial, brick.mConfigRevision };
+            }
+        };
+    }
+
 
 
 }
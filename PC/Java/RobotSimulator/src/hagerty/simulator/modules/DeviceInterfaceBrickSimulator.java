@@ -0,0 +1,338 @@
+package hagerty.simulator.modules;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import javafx.geometry.Insets;
+import javafx.scene.layout.ColumnConstraints;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+
+import hagerty.simulator.legacy.data.AnalogInputSimData;
+import hagerty.simulator.legacy.data.DigitalInputSimData;
+import hagerty.simulator.legacy.data.I2cDeviceSimData;
+import hagerty.simulator.legacy.data.SimData;
+import hagerty.simulator.legacy.data.SimDataFactory;
+import hagerty.simulator.legacy.data.SimDataType;
+import hagerty.utils.StateImage;
+
+/**
+ * Model class for a Core Device Interface Module
+ *
+ * Speaks the Modern Robotics USB protocol (see UsbBrickSimulator).  The module's 240 byte memory map:
+ *
+ *    0x00-0x02  firmware version, manufacturer 'M', module type 'D'
+ *    0x03       I2C buffer status, a set bit means that port's transaction is still running
+ *    0x04-0x13  analog inputs A0-A7 (see AnalogInputSimData)
+ *    0x14-0x16  digital input state, I/O control and output state (see DigitalInputSimData)
+ *    0x17       LEDs      0x18-0x23 analog outputs      0x24-0x2B PWM outputs
+ *    0x30-0xEF  six 32 byte I2C port buffers
+ *
+ * An I2C port buffer holds mode, bus address, first register, length, 27 bytes of data and, in its
+ * last byte, the action flag.  The phone fills in a buffer and sets the flag (or, once a port is set
+ * up, writes just the flag again); the I2C engine here then runs the transaction against the device
+ * on that port and clears the flag.  Transactions finish as soon as they are written, so the buffer
+ * status never shows a port busy and the phone can poll every port on every cycle.  The buffers live
+ * in the module's image, so each port keeps its mode, address and last read data between
+ * transactions just as the real module does.
+ *
+ * Sensors are configured per port, like the legacy module's: ports 0-5 are the I2C ports, 6-13 the
+ * analog inputs and 14-21 the digital channels.  Analog and digital sensors write their values into
+ * the image whenever they change, so reads are answered straight from the image.
+ *
+ * @author Hagerty High
+ */
+@XmlRootElement(name="DeviceInterface")
+public class DeviceInterfaceBrickSimulator extends UsbBrickSimulator {
+
+    private final String name = "Core Device Interface Module";
+
+    public static final int MEMORY_SIZE = 240;
+
+    public static final int REGISTER_BUFFER_STATUS = 0x03;
+    public static final int REGISTER_I2C0 = 0x30;
+    public static final int I2C_BUFFER_SIZE = 32;
+    static final int OFFSET_I2C_MODE = 0;
+    static final int OFFSET_I2C_ADDRESS = 1;
+    static final int OFFSET_I2C_REGISTER = 2;
+    static final int OFFSET_I2C_LENGTH = 3;
+    static final int OFFSET_I2C_DATA = 4;
+    static final int OFFSET_I2C_FLAG = 31;
+    static final int I2C_MAX_LENGTH = 27;
+    static final byte I2C_MODE_READ = (byte)0x80;
+    static final byte I2C_ACTION_FLAG = (byte)0xFF;
+    static final byte I2C_NO_ACTION_FLAG = 0;
+
+    // Port layout of the portName/portType lists
+    public static final int I2C_PORTS = 6;
+    public static final int FIRST_ANALOG_PORT = I2C_PORTS;
+    public static final int FIRST_DIGITAL_PORT = FIRST_ANALOG_PORT + AnalogInputSimData.PORTS;
+    public static final int PORTS = FIRST_DIGITAL_PORT + DigitalInputSimData.PORTS;
+
+    private static final SimDataType[] I2C_CHOICES = { SimDataType.NONE, SimDataType.DIM_I2C_COLOR };
+    private static final SimDataType[] ANALOG_CHOICES = { SimDataType.NONE, SimDataType.DIM_ANALOG };
+    private static final SimDataType[] DIGITAL_CHOICES = { SimDataType.NONE, SimDataType.DIM_DIGITAL };
+
+    protected final byte[] identification = { 0x02, 'M', 'D' };
+
+    @XmlElement
+    private String[] portName = new String[PORTS];
+    @XmlElement
+    private SimDataType[] portType = new SimDataType[PORTS];
+
+    private SimData[] portSimData = new SimData[PORTS];
+
+    // The device on each I2C port, null if none.  Rebuilt, never modified, when the configuration changes.
+    private volatile I2cDeviceSimData[] mI2cDevices = new I2cDeviceSimData[I2C_PORTS];
+
+    // The module's memory image, indexed by register address
+    protected final StateImage mCurrentStateBuffer = new StateImage(MEMORY_SIZE);
+
+    /**
+     * Default constructor.
+     */
+    public DeviceInterfaceBrickSimulator() {
+    	Arrays.fill(portType, SimDataType.NONE);
+    	ByteBuffer state = mCurrentStateBuffer.beginWrite();
+    	try {
+    		for (int i=0;i<identification.length;i++) {
+    			state.put(i, identification[i]);
+    		}
+    	} finally {
+    		mCurrentStateBuffer.publish();
+    	}
+    }
+
+    public String getName() {
+    	return name;
+    }
+
+    protected int getMemorySize() {
+    	return MEMORY_SIZE;
+    }
+
+    /**
+     * Copy the writable registers into the image, then run the I2C transactions the write asked for.
+     */
+    protected void processWrite(int register, ByteBuffer data, int count) {
+    	int start = data.position();
+    	ByteBuffer state = mCurrentStateBuffer.beginWrite();
+    	try {
+    		for (int i=0;i<count;i++) {
+    			int r = register + i;
+    			if (r >= MEMORY_SIZE) break;
+    			if (r <= DigitalInputSimData.REGISTER_INPUT_STATE) continue;  // identification and inputs
+    			state.put(r, data.get(start + i));
+    		}
+
+    		int end = register + count;
+    		if (register <= DigitalInputSimData.REGISTER_OUTPUT_STATE && end > DigitalInputSimData.REGISTER_IO_CONTROL) {
+    			putDigitalInputs(state);
+    		}
+
+    		I2cDeviceSimData[] devices = mI2cDevices;
+    		for (int port=0;port<I2C_PORTS;port++) {
+    			int p = REGISTER_I2C0 + port*I2C_BUFFER_SIZE;
+    			if (end <= p || register >= p + I2C_BUFFER_SIZE) continue;
+    			if (state.get(p + OFFSET_I2C_FLAG) == I2C_ACTION_FLAG) {
+    				runTransaction(state, p, devices[port]);
+    			}
+    		}
+    	} finally {
+    		mCurrentStateBuffer.publish();
+    	}
+    }
+
+    /**
+     * Run the transaction set up in an I2C port buffer and clear its action flag.  A read fills the
+     * buffer's data bytes from the device; a write hands them to it.
+     */
+    private static void runTransaction(ByteBuffer state, int p, I2cDeviceSimData device) {
+    	int address = state.get(p + OFFSET_I2C_ADDRESS) & 0xff;
+    	int register = state.get(p + OFFSET_I2C_REGISTER) & 0xff;
+    	int length = Math.min(state.get(p + OFFSET_I2C_LENGTH) & 0xff, I2C_MAX_LENGTH);
+
+    	// A transaction nobody answers leaves the buffer as it was
+    	if (device != null && device.getI2cAddress() == address) {
+    		if (state.get(p + OFFSET_I2C_MODE) == I2C_MODE_READ) {
+    			device.read(register, state, p + OFFSET_I2C_DATA, length);
+    		} else {
+    			device.write(register, state, p + OFFSET_I2C_DATA, length);
+    		}
+    	}
+    	state.put(p + OFFSET_I2C_FLAG, I2C_NO_ACTION_FLAG);
+    }
+
+    /**
+     * The input state register: outputs read back what they output, inputs what their sensor says.
+     */
+    private void putDigitalInputs(ByteBuffer state) {
+    	int outputs = state.get(DigitalInputSimData.REGISTER_IO_CONTROL) & 0xff;
+    	int inputs = state.get(DigitalInputSimData.REGISTER_OUTPUT_STATE) & outputs;
+    	state.put(DigitalInputSimData.REGISTER_INPUT_STATE, (byte)inputs);
+    	for (int channel=0;channel<DigitalInputSimData.PORTS;channel++) {
+    		SimData simData = portSimData[FIRST_DIGITAL_PORT + channel];
+    		if (simData instanceof DigitalInputSimData) ((DigitalInputSimData)simData).putInput(state);
+    	}
+    }
+
+    protected void answerRead(ByteBuffer reply, int register, int count) {
+    	ByteBuffer front = mCurrentStateBuffer.front();
+    	front.limit(register + count).position(register);
+    	reply.put(front);
+    }
+
+    /**
+     * Build the SimData objects for the configured ports, as LegacyBrickSimulator does, and write
+     * their current values into the image.
+     */
+    public void fixupUnMarshaling() {
+    	// A file from an older layout may have fewer ports
+    	if (portName.length != PORTS) portName = Arrays.copyOf(portName, PORTS);
+    	if (portType.length != PORTS) portType = Arrays.copyOf(portType, PORTS);
+
+    	I2cDeviceSimData[] i2cDevices = new I2cDeviceSimData[I2C_PORTS];
+    	for (int i=0;i<PORTS;i++) {
+    		if (portType[i] == null || !Arrays.asList(getPortChoices(i)).contains(portType[i])) {
+    			portType[i] = SimDataType.NONE;
+    		}
+    		portSimData[i] = SimDataFactory.buildSimData(portType[i]);
+    		if (portSimData[i] != null) {
+    			portSimData[i].setSimDataName(portName[i]);
+    			portSimData[i].attach(mCurrentStateBuffer, getPortChannel(i));
+    		}
+    		if (i < I2C_PORTS && portSimData[i] instanceof I2cDeviceSimData) {
+    			i2cDevices[i] = (I2cDeviceSimData)portSimData[i];
+    		}
+    	}
+    	mI2cDevices = i2cDevices;
+
+    	ByteBuffer state = mCurrentStateBuffer.beginWrite();
+    	try {
+    		for (int channel=0;channel<AnalogInputSimData.PORTS;channel++) {
+    			SimData simData = portSimData[FIRST_ANALOG_PORT + channel];
+    			if (simData instanceof AnalogInputSimData) {
+    				((AnalogInputSimData)simData).putReading(state);
+    			} else {
+    				state.putShort(AnalogInputSimData.register(channel), (short)0);
+    			}
+    		}
+    		putDigitalInputs(state);
+    	} finally {
+    		mCurrentStateBuffer.publish();
+    	}
+    	mConfigRevision.set(mConfigRevision.get() + 1);
+    }
+
+    /**
+     * Which of the I2C ports, analog inputs or digital channels a port is.
+     */
+    public static int getPortChannel(int port) {
+    	if (port < FIRST_ANALOG_PORT) return port;
+    	if (port < FIRST_DIGITAL_PORT) return port - FIRST_ANALOG_PORT;
+    	return port - FIRST_DIGITAL_PORT;
+    }
+
+    public static String getPortLabel(int port) {
+    	if (port < FIRST_ANALOG_PORT) return "I2C " + port;
+    	if (port < FIRST_DIGITAL_PORT) return "A" + getPortChannel(port);
+    	return "D" + getPortChannel(port);
+    }
+
+    /**
+     * The SimData types that can be plugged into a port.
+     */
+    public static SimDataType[] getPortChoices(int port) {
+    	if (port < FIRST_ANALOG_PORT) return I2C_CHOICES;
+    	if (port < FIRST_DIGITAL_PORT) return ANALOG_CHOICES;
+    	return DIGITAL_CHOICES;
+    }
+
+    public SimData findSimDataName(String name) {
+    	for (int i=0;i<PORTS;i++) {
+    		if (portName[i] != null && portName[i].equals(name)) {
+    			return portSimData[i];
+    		}
+    	}
+    	return null;
+    }
+
+    /**
+     * Populate the details pane in the Overview window with the ports that have something plugged in.
+     */
+    public void populateDetailsPane(Pane pane) {
+		GridPane grid = new GridPane();
+		grid.setMaxSize(Region.USE_COMPUTED_SIZE, Region.USE_COMPUTED_SIZE);
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.setPadding(new Insets(10, 10, 10, 10));
+        grid.prefWidthProperty().bind(pane.widthProperty());
+		ColumnConstraints col1 = new ColumnConstraints();
+		col1.setPercentWidth(25);
+		ColumnConstraints col2 = new ColumnConstraints();
+		col2.setPercentWidth(50);
+		ColumnConstraints col3 = new ColumnConstraints();
+		col3.setPercentWidth(25);
+		grid.getColumnConstraints().addAll(col1,col2,col3);
+
+		int row = 0;
+		for (int i=0;i<PORTS;i++) {
+			if (portType[i] == null || portType[i] == SimDataType.NONE) continue;
+			grid.add(new Text(getPortLabel(i)), 0, row);
+			grid.add(new Text(portType[i].getName()), 1, row);
+			grid.add(new Text(portName[i]), 2, row);
+			row++;
+		}
+		if (row == 0) grid.add(new Text("Nothing connected"), 0, 0);
+
+		pane.getChildren().add(grid);
+	}
+
+    /**
+     * Getters/Setters
+     */
+    public SimData[] getPortSimData() {
+    	return portSimData;
+    }
+
+    public String[] getPortName() {
+    	return portName;
+    }
+
+    public SimDataType[] getPortType() {
+    	return portType;
+    }
+
+    public void setPortName(String[] s) {
+    	portName = s;
+    }
+
+    public void setPortType(SimDataType[] type) {
+    	portType = type;
+    }
+
+    /**
+     * GUI Stuff
+     */
+	public void setupDebugGuiVbox(VBox vbox) {
+		for (int i=0;i<PORTS;i++) {
+			if (portSimData[i] != null) {
+				portSimData[i].setupDebugGuiVbox(vbox);
+			}
+		}
+	}
+
+	public void populateDebugGuiVbox() {
+		for (int i=0;i<PORTS;i++) {
+			if (portSimData[i] != null) {
+				portSimData[i].populateDebugGuiVbox();
+			}
+		}
+	}
+}
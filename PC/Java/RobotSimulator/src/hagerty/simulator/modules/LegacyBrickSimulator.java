@@ -1,8 +1,7 @@
 package hagerty.simulator.modules;
 
-import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -15,10 +14,12 @@ import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
 
+import hagerty.simulator.RobotSimulator;
 import hagerty.simulator.legacy.data.SimData;
-import hagerty.simulator.legacy.data.LegacyMotorSimData;
+import hagerty.simulator.legacy.data.LegacyPortHandler;
 import hagerty.simulator.legacy.data.SimDataFactory;
 import hagerty.simulator.legacy.data.SimDataType;
+import hagerty.utils.StateImage;
 
 
 /**
@@ -38,7 +39,25 @@ public class LegacyBrickSimulator extends BrickSimulator {
 
     private SimData[] portSimData = new SimData[6];
 
-    protected final byte[] mCurrentStateBuffer = new byte[208];
+    /**
+     * The ports whose SimData handles I2C transactions, and their handlers.
+     */
+    private static final class PortTable {
+    	final int[] ports;
+    	final LegacyPortHandler[] handlers;
+
+    	PortTable(int[] ports, LegacyPortHandler[] handlers) {
+    		this.ports = ports;
+    		this.handlers = handlers;
+    	}
+    }
+
+    // Built by fixupUnMarshaling.  Replaced, never modified.
+    private volatile PortTable mPortTable = new PortTable(new int[0], new LegacyPortHandler[0]);
+
+    // The 208 byte memory image of the module.  Writers fill the back buffer and publish it, read
+    // replies send the published front buffer as is.
+    protected final StateImage mCurrentStateBuffer = new StateImage(208);
 
     /**
      * Default constructor.
@@ -62,63 +81,90 @@ public class LegacyBrickSimulator extends BrickSimulator {
 	protected final byte[] controllerTypeLegacy = { 0, 77, 73};       // Controller type USBLegacyModule
 
 
-    private void sendPacketToPhone(byte[] sendData) {
-    	try {
-    		DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, mPhoneIPAddress, mPhonePort);
-        	mServerSocket.send(sendPacket);
-        	//System.out.println("sendPacketToPhone: (" + bufferToHexString(sendData,0,sendData.length) + ") len=" + sendData.length);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-
-    public void handleIncomingPacket(byte[] data, int length, boolean wait)
+    public void handleIncomingPacket(ByteBuffer data, int length, boolean wait)
     {
-    	//System.out.println("Receive Buffer: (" + bufferToHexString(data,0,25) + ") len=" + data.length);
+    	//System.out.println("Receive Buffer: len=" + length);
 
-    	if (data[0] == readCmd[0] && data[2] == readCmd[2] && data[4] == (byte)208) { // readCmd
-    		sendPacketToPhone(mCurrentStateBuffer);
+    	if (data.get(0) == readCmd[0] && data.get(2) == readCmd[2] && data.get(4) == (byte)208) { // readCmd
+    		// A read ends one phone read/write cycle.  In lockstep mode this steps the physics before we answer.
+    		RobotSimulator.getClock().cycle(this);
+    		sendPacketToPhone(mCurrentStateBuffer.front());
     		// Set the Port S0 ready bit in the global part of the Current State Buffer
-    		mCurrentStateBuffer[3] = (byte)0xfe;  // Port S0 ready
+    		ByteBuffer state = mCurrentStateBuffer.beginWrite();
+    		try {
+    			state.put(3, (byte)0xfe);  // Port S0 ready
+    		} finally {
+    			mCurrentStateBuffer.publish();
+    		}
         } else {
 
 	        // Write Command
-	    	// Process the received data packet
-	        // Loop through each of the 6 ports and see if the Action flag is set.
-	        // If set then copy the 32 bytes for the port into the CurrentStateBuffer
-
-	        for (int i=0;i<6;i++) {
-	        	switch (portType[i]) {
-	        	case LEGACY_MOTOR:
-	        		((LegacyMotorSimData) portSimData[i]).processBuffer(i, data, mCurrentStateBuffer );
-	        		break;
-	        	case LEGACY_LIGHT:
-	        		break;
-	        	case LEGACY_TOUCH:
-	        		break;
-	        	default:
-	        		break;
-	        	}
+	        // Only the ports with a handler are looked at, and of those only the ones the phone
+	        // touched: the packet covers the port's window and its action flag is set.  A port's
+	        // window is copied into the image and its handler told what the mode asks for.
+	        // The port's own flag is the only per port mark there is: the 16 byte header holds the
+	        // command and the module's global registers, and its buffer status byte is the module's
+	        // to set, which the phone only reads.
+	        PortTable table = mPortTable;
+	        ByteBuffer state = null;
+	        try {
+		        for (int h=0;h<table.ports.length;h++) {
+		        	int port = table.ports[h];
+		        	int p = LegacyPortHandler.PORT_BASE + LegacyPortHandler.PORT_SIZE * port;
+		        	if (length < p + LegacyPortHandler.PORT_SIZE) continue;
+		        	if (data.get(p + LegacyPortHandler.OFFSET_FLAG) != LegacyPortHandler.ACTION_FLAG) continue;
+		        	byte mode = data.get(p + LegacyPortHandler.OFFSET_MODE);
+		        	if ((mode & LegacyPortHandler.MODE_I2C) != LegacyPortHandler.MODE_I2C) continue;
+
+		        	if (state == null) state = mCurrentStateBuffer.beginWrite();
+		        	copyPortWindow(data, p, state);
+		        	if ((mode & LegacyPortHandler.MODE_READ) == LegacyPortHandler.MODE_READ) {
+		        		table.handlers[h].i2cRead(port, state);
+		        	} else {
+		        		table.handlers[h].i2cWrite(port, state);
+		        	}
+		        }
+	        } finally {
+	        	if (state != null) mCurrentStateBuffer.publish();
 	        }
         }
     }
 
+    private static void copyPortWindow(ByteBuffer packet, int p, ByteBuffer state) {
+    	int position = packet.position();
+    	int limit = packet.limit();
+    	packet.limit(p + LegacyPortHandler.PORT_SIZE).position(p);
+    	state.position(p);
+    	state.put(packet);
+    	packet.limit(limit).position(position);
+    }
+
 
     /**
      * For the LegacyBrickSimulator objects, since we couldn't get the marshaler to handle the list of small
      * SimData objects(6), we created and marshaled a list of the six port types and names.  We now need to create
-     * the objects by hand using the unmarshaled list of portTypes and portNames.
+     * the objects by hand using the unmarshaled list of portTypes and portNames.  The ports whose SimData
+     * acts on the phone's I2C transactions go in the handler table used by every write packet.
      */
     public void fixupUnMarshaling() {
+    	int handled = 0;
+    	int[] handledPorts = new int[6];
+    	LegacyPortHandler[] portHandlers = new LegacyPortHandler[6];
     	for (int i=0;i<6;i++) {
     		// if port is not configured then don't create any SimData objects for it!
     		portSimData[i] = SimDataFactory.buildSimData(portType[i]);
     		if (portSimData[i] != null){
         		portSimData[i].setSimDataName(portName[i]);  // name the newly created SimData object
+        		portSimData[i].attach(mCurrentStateBuffer, i);
+    		}
+    		if (portSimData[i] instanceof LegacyPortHandler) {
+    			handledPorts[handled] = i;
+    			portHandlers[handled] = (LegacyPortHandler) portSimData[i];
+    			handled++;
     		}
-
     	}
+    	mPortTable = new PortTable(Arrays.copyOf(handledPorts, handled), Arrays.copyOf(portHandlers, handled));
+    	mConfigRevision.set(mConfigRevision.get() + 1);
     }
 
     /**
@@ -1,42 +1,110 @@
 package hagerty.simulator.modules;
 
+import java.nio.ByteBuffer;
+
 import javax.xml.bind.annotation.XmlRootElement;
 
+import hagerty.simulator.RobotSimulator;
 import hagerty.simulator.legacy.data.SimData;
 import hagerty.simulator.legacy.data.SimDataFactory;
+import hagerty.simulator.legacy.data.SimDataType;
+import hagerty.simulator.legacy.data.UsbMotorSimData;
+import hagerty.utils.StateImage;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
 
 /**
  * Model class for a Motor Controller
  *
+ * Speaks the Modern Robotics USB protocol (see UsbBrickSimulator).  The registers are simulated by
+ * a UsbMotorSimData, which is found by the brick's alias.
+ *
  * @author Hagerty High
  */
 @XmlRootElement(name="Motor")
-public class MotorBrickSimulator extends BrickSimulator {
+public class MotorBrickSimulator extends UsbBrickSimulator {
 
     private final String name = "Core Motor Controller";
 
+    private final UsbMotorSimData mMotors = (UsbMotorSimData)SimDataFactory.buildSimData(SimDataType.USB_MOTOR);
+
+    // The controller's memory image, indexed by register address
+    protected final StateImage mCurrentStateBuffer = new StateImage(UsbMotorSimData.MEMORY_SIZE);
+
     /**
      * Default constructor.
      */
     public MotorBrickSimulator() {
+    	mMotors.attach(mCurrentStateBuffer, 0);
+    	ByteBuffer state = mCurrentStateBuffer.beginWrite();
+    	try {
+    		mMotors.initializeImage(state);
+    	} finally {
+    		mCurrentStateBuffer.publish();
+    	}
     }
 
     public String getName() {
     	return name;
     }
 
-    public void fixupUnMarshaling() {}
+    public void fixupUnMarshaling() {
+    	mMotors.setSimDataName(getAlias());
+    }
+
+    protected int getMemorySize() {
+    	return UsbMotorSimData.MEMORY_SIZE;
+    }
 
-	public void setupDebugGuiVbox(VBox vbox) {}
+    protected void processWrite(int register, ByteBuffer data, int count) {
+    	ByteBuffer state = mCurrentStateBuffer.beginWrite();
+    	try {
+    		mMotors.processWrite(state, register, data, count);
+    	} finally {
+    		mCurrentStateBuffer.publish();
+    	}
+    }
+
+    /**
+     * Bring the motors up to the current time and copy the requested registers into the reply.
+     */
+    protected void answerRead(ByteBuffer reply, int register, int count) {
+    	ByteBuffer state = mCurrentStateBuffer.beginWrite();
+    	try {
+    		mMotors.step(state, RobotSimulator.getClock().nanoTime());
+    	} finally {
+    		mCurrentStateBuffer.publish();
+    	}
+
+    	ByteBuffer front = mCurrentStateBuffer.front();
+    	front.limit(register + count).position(register);
+    	reply.put(front);
+    }
 
-	public void populateDebugGuiVbox() {}
+	public void setupDebugGuiVbox(VBox vbox) {
+		mMotors.setSimDataName(getAlias());
+		mMotors.setupDebugGuiVbox(vbox);
+	}
 
-	public void populateDetailsPane(Pane pane) {}
+	public void populateDebugGuiVbox() {
+		mMotors.populateDebugGuiVbox();
+	}
 
-	public SimData findSimDataName(String name) {return (SimData)null;}
+	public void populateDetailsPane(Pane pane) {
+		pane.getChildren().add(new Text(String.format("Battery %.1f V", mMotors.getBatteryVoltage())));
+	}
 
-	public void handleIncomingPacket(byte[] data, int length, boolean wait) {};
+	/**
+	 * The controller's motors go by the brick's alias.
+	 */
+	public SimData findSimDataName(String name) {
+		if (name == null || !name.equals(getAlias())) return null;
+		mMotors.setSimDataName(name);
+		return mMotors;
+	}
 
-}
\ No newline at end of file
+	public UsbMotorSimData getMotors() {
+		return mMotors;
+	}
+}
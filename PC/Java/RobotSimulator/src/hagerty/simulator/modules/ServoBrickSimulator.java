@@ -1,41 +1,120 @@
 package hagerty.simulator.modules;
 
+import java.nio.ByteBuffer;
+
 import javax.xml.bind.annotation.XmlRootElement;
 
+import hagerty.simulator.RobotSimulator;
 import hagerty.simulator.legacy.data.SimData;
+import hagerty.simulator.legacy.data.SimDataFactory;
+import hagerty.simulator.legacy.data.SimDataType;
+import hagerty.simulator.legacy.data.UsbServoSimData;
+import hagerty.utils.StateImage;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
 
 /**
- * Model class for a Motor Controller
+ * Model class for a Servo Controller
+ *
+ * Speaks the Modern Robotics USB protocol (see UsbBrickSimulator).  The image is kept as the ready
+ * made reply to a read of the 9 byte monitor block, which is the only read the phone makes once it
+ * is running, so a packet holding just that read is answered by sending the image without building
+ * anything.  Any other packet gets its replies assembled in a pooled buffer.  The servos themselves
+ * are simulated by a UsbServoSimData, which is found by the brick's alias.
  *
  * @author Hagerty High
  */
 @XmlRootElement(name="Servo")
-public class ServoBrickSimulator extends BrickSimulator {
+public class ServoBrickSimulator extends UsbBrickSimulator {
 
     private final String name = "Core Servo Controller";
 
+    private final UsbServoSimData mServos = (UsbServoSimData)SimDataFactory.buildSimData(SimDataType.USB_SERVO);
+
+    // The monitor block read reply: header, then registers 0x40..0x48
+    protected final StateImage mCurrentStateBuffer = new StateImage(UsbServoSimData.REPLY_LENGTH);
+
     /**
      * Default constructor.
      */
     public ServoBrickSimulator() {
+    	mServos.attach(mCurrentStateBuffer, 0);
+    	ByteBuffer state = mCurrentStateBuffer.beginWrite();
+    	try {
+    		mServos.initializeImage(state);
+    	} finally {
+    		mCurrentStateBuffer.publish();
+    	}
     }
 
     public String getName() {
     	return name;
     }
 
-    public void fixupUnMarshaling() {}
+    public void fixupUnMarshaling() {
+    	mServos.setSimDataName(getAlias());
+    }
+
+    public void handleIncomingPacket(ByteBuffer data, int length, boolean wait) {
+    	// The common case: a packet that is nothing but a read of the monitor block
+    	if (length == HEADER_LENGTH && data.get(0) == SYNC_0 && data.get(1) == SYNC_1 && data.get(2) == READ_FLAG
+    			&& (data.get(3) & 0xff) == UsbServoSimData.REGISTER_START
+    			&& (data.get(4) & 0xff) == UsbServoSimData.MONITOR_LENGTH) {
+    		RobotSimulator.getClock().cycle(this);
+    		sendPacketToPhone(mCurrentStateBuffer.front());
+    		return;
+    	}
+
+    	super.handleIncomingPacket(data, length, wait);
+    }
 
-	public void setupDebugGuiVbox(VBox vbox) {}
+    protected int getMemorySize() {
+    	return UsbServoSimData.MEMORY_SIZE;
+    }
+
+    protected void processWrite(int register, ByteBuffer data, int count) {
+    	ByteBuffer state = mCurrentStateBuffer.beginWrite();
+    	try {
+    		mServos.processWrite(state, register, data, count, RobotSimulator.getClock().nanoTime());
+    	} finally {
+    		mCurrentStateBuffer.publish();
+    	}
+    }
+
+    /**
+     * Copy the requested registers into the reply, one at a time since they needn't all be in the image.
+     */
+    protected void answerRead(ByteBuffer reply, int register, int count) {
+    	ByteBuffer front = mCurrentStateBuffer.front();
+    	for (int i=0;i<count;i++) {
+    		reply.put(UsbServoSimData.readRegister(front, register + i));
+    	}
+    }
 
-	public void populateDebugGuiVbox() {}
+	public void setupDebugGuiVbox(VBox vbox) {
+		mServos.setSimDataName(getAlias());
+		mServos.setupDebugGuiVbox(vbox);
+	}
 
-	public void populateDetailsPane(Pane pane) {}
+	public void populateDebugGuiVbox() {
+		mServos.populateDebugGuiVbox();
+	}
 
-	public SimData findSimDataName(String name) {return (SimData)null;}
+	public void populateDetailsPane(Pane pane) {
+		pane.getChildren().add(new Text(mServos.snapshot().pwmEnabled ? "PWM enabled" : "PWM disabled"));
+	}
 
-	public void handleIncomingPacket(byte[] data, int length, boolean wait) {};
+	/**
+	 * The controller's servos go by the brick's alias.
+	 */
+	public SimData findSimDataName(String name) {
+		if (name == null || !name.equals(getAlias())) return null;
+		mServos.setSimDataName(name);
+		return mServos;
+	}
 
-}
\ No newline at end of file
+	public UsbServoSimData getServos() {
+		return mServos;
+	}
+}
@@ -0,0 +1,103 @@
+package hagerty.simulator.modules;
+
+import java.nio.ByteBuffer;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+import hagerty.simulator.RobotSimulator;
+
+/**
+ * Base class for the bricks that speak the Modern Robotics USB register protocol (the motor and
+ * servo controllers and the device interface module).  A packet from the phone holds one or more
+ * commands:
+ *
+ *    write   0x55 0xAA 0x00 register length data...   answered with 0x33 0xCC 0x00 register 0
+ *    read    0x55 0xAA 0x80 register length           answered with 0x33 0xCC 0x80 register length data...
+ *
+ * The answers to all the commands in a packet go back in one packet.  Subclasses apply the writes
+ * and fill in the data of the reads.
+ *
+ * @author Hagerty High
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public abstract class UsbBrickSimulator extends BrickSimulator {
+
+    static final int HEADER_LENGTH = 5;
+    static final byte SYNC_0 = 0x55;
+    static final byte SYNC_1 = (byte)0xAA;
+    static final byte RESPONSE_SYNC_0 = 0x33;
+    static final byte RESPONSE_SYNC_1 = (byte)0xCC;
+    static final byte READ_FLAG = (byte)0x80;
+
+    // A phone sending garbage sends it at its full polling rate, so a bad sync is only logged once per brick
+    private boolean mBadSyncLogged = false;
+
+    public void handleIncomingPacket(ByteBuffer data, int length, boolean wait) {
+    	ByteBuffer reply = mBufferPool.acquire();
+    	try {
+    		int p = 0;
+    		while (p + HEADER_LENGTH <= length) {
+    			if (data.get(p) != SYNC_0 || data.get(p+1) != SYNC_1) {
+    				if (!mBadSyncLogged) {
+    					mBadSyncLogged = true;
+    					System.out.println(getName() + " " + getSerial() + ": bad sync at byte " + p + ", dropping the rest of the packet (further bad packets are dropped silently)");
+    				}
+    				break;
+    			}
+    			boolean read = data.get(p+2) == READ_FLAG;
+    			int register = data.get(p+3) & 0xff;
+    			int count = data.get(p+4) & 0xff;
+    			p += HEADER_LENGTH;
+
+    			if (read) {
+    				// A read ends one phone read/write cycle.  In lockstep mode this steps the physics before we answer.
+    				RobotSimulator.getClock().cycle(this);
+    				count = Math.max(0, Math.min(count, getMemorySize() - register));
+    				if (reply.remaining() < HEADER_LENGTH + count) continue;
+    				putHeader(reply, READ_FLAG, register, count);
+    				if (count > 0) answerRead(reply, register, count);
+    			} else {
+    				if (p + count > length) break;  // truncated write
+    				data.position(p);
+    				try {
+    					processWrite(register, data, count);
+    				} finally {
+    					data.position(0);
+    				}
+    				p += count;
+    				putHeader(reply, (byte)0x00, register, 0);
+    			}
+    		}
+
+    		if (reply.position() > 0) {
+    			reply.flip();
+    			sendPacketToPhone(reply);
+    		}
+    	} finally {
+    		mBufferPool.release(reply);
+    	}
+    }
+
+    /**
+     * Size of the brick's register map.  Reads are cut off at the end of it.
+     */
+    protected abstract int getMemorySize();
+
+    /**
+     * Apply a write from the phone.
+     *
+     * @param data the bytes, from its position; the position is restored by the caller
+     */
+    protected abstract void processWrite(int register, ByteBuffer data, int count);
+
+    /**
+     * Put count bytes of registers, starting at register, into the reply.  The header is already
+     * there and count is within the register map.
+     */
+    protected abstract void answerRead(ByteBuffer reply, int register, int count);
+
+    static void putHeader(ByteBuffer reply, byte flag, int register, int count) {
+    	reply.put(RESPONSE_SYNC_0).put(RESPONSE_SYNC_1).put(flag).put((byte)register).put((byte)count);
+    }
+}
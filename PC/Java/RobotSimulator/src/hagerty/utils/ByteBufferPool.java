@@ -0,0 +1,49 @@
+package hagerty.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A small pool of reusable direct ByteBuffers.
+ *
+ * Each brick owns one of these so that receiving a packet from the phone and sending the reply
+ * doesn't create any garbage.  Direct buffers are used so the channel can hand them straight to
+ * the OS without copying them into a temporary native buffer first.
+ */
+public final class ByteBufferPool {
+
+	private final ArrayDeque<ByteBuffer> mFree;
+	private final int mBufferSize;
+
+	public ByteBufferPool(int count, int bufferSize) {
+		mBufferSize = bufferSize;
+		mFree = new ArrayDeque<ByteBuffer>(count);
+		for (int i=0;i<count;i++) {
+			mFree.push(ByteBuffer.allocateDirect(bufferSize));
+		}
+	}
+
+	/**
+	 * Take a cleared buffer out of the pool.  If the pool has run dry a new buffer is made, it will
+	 * join the pool when it is released.
+	 */
+	public synchronized ByteBuffer acquire() {
+		ByteBuffer buffer = mFree.poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(mBufferSize);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Give a buffer back to the pool.  The caller must not touch it afterwards.
+	 */
+	public synchronized void release(ByteBuffer buffer) {
+		mFree.push(buffer);
+	}
+
+	public int getBufferSize() {
+		return mBufferSize;
+	}
+}
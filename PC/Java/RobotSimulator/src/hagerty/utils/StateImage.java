@@ -0,0 +1,91 @@
+package hagerty.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed size controller memory image that can be updated by writer threads while a reader sends
+ * consistent snapshots of it to the phone.
+ *
+ * Three direct buffers rotate between the writers (back), the last published image (middle) and the
+ * reader (front).  Writers fill the back buffer and publish it; the reader picks up the newest
+ * published image and sends it without copying.  No lock is held while the reader does socket I/O.
+ *
+ * Only one thread may read at a time (the brick's packet thread); any number of threads may write.
+ */
+public final class StateImage {
+
+	private static final int INDEX_MASK = 0x3;
+	private static final int DIRTY = 0x4;
+
+	private final int mSize;
+	private final ByteBuffer[] mBuffers = new ByteBuffer[3];
+	private final ByteBuffer[] mReadViews = new ByteBuffer[3];  // used by the reader
+	private final ByteBuffer[] mCopyViews = new ByteBuffer[3];  // used by publish()
+
+	// Index of the last published buffer, with DIRTY set until the reader has picked it up
+	private final AtomicInteger mMiddle = new AtomicInteger(1);
+
+	// Writers serialize with each other, never with the reader
+	private final ReentrantLock mWriteLock = new ReentrantLock();
+	private int mBack = 2;   // guarded by mWriteLock
+	private int mFront = 0;  // owned by the reader thread
+
+	public StateImage(int size) {
+		mSize = size;
+		for (int i=0;i<3;i++) {
+			mBuffers[i] = ByteBuffer.allocateDirect(size);
+			mReadViews[i] = mBuffers[i].asReadOnlyBuffer();
+			mCopyViews[i] = mBuffers[i].asReadOnlyBuffer();
+		}
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * Lock the image for writing and return the back buffer.  It holds a copy of the latest published
+	 * image; use absolute gets and puts on it.  Must be paired with {@link #publish()}.
+	 */
+	public ByteBuffer beginWrite() {
+		mWriteLock.lock();
+		ByteBuffer back = mBuffers[mBack];
+		back.clear();
+		return back;
+	}
+
+	/**
+	 * Make the back buffer the newest image and release the write lock.
+	 */
+	public void publish() {
+		try {
+			int published = mBack;
+			mBack = mMiddle.getAndSet(published | DIRTY) & INDEX_MASK;
+
+			// The recycled buffer is stale, bring it up to date so the next writer only has to
+			// change the bytes it cares about.  Nobody writes the published buffer while we copy it.
+			ByteBuffer source = mCopyViews[published];
+			source.clear();
+			ByteBuffer back = mBuffers[mBack];
+			back.clear();
+			back.put(source);
+		} finally {
+			mWriteLock.unlock();
+		}
+	}
+
+	/**
+	 * Return the newest published image, positioned at 0 with the limit at the image size.  The
+	 * buffer stays stable until the next call to front() from the same reader thread.
+	 */
+	public ByteBuffer front() {
+		if ((mMiddle.get() & DIRTY) != 0) {
+			mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+		}
+		ByteBuffer view = mReadViews[mFront];
+		view.clear();
+		return view;
+	}
+}
@@ -0,0 +1,76 @@
+package hagerty.simulator.modules;
+
+import java.nio.ByteBuffer;
+
+import hagerty.simulator.legacy.data.LegacyCompassSimData;
+import hagerty.simulator.legacy.data.LegacyPortHandler;
+import hagerty.simulator.legacy.data.LegacyUltrasonicSimData;
+import hagerty.simulator.legacy.data.SimDataType;
+
+/**
+ * Packet level check of the legacy module's port dispatch: a write packet sets up an I2C read on
+ * two ports, but only one of them has its action flag set.  The flagged port's window must be
+ * copied into the image and answered by its sensor; the other port's window must stay as it was.
+ *
+ * Run as a Java application; it throws if a check fails.
+ *
+ * @author Hagerty High
+ */
+public class LegacyPortDispatchTest {
+
+	static final int TOUCHED = 3;     // compass
+	static final int UNTOUCHED = 5;   // ultrasonic
+
+	public static void main(String[] args) {
+		LegacyBrickSimulator brick = new LegacyBrickSimulator();
+		brick.getPortType()[TOUCHED] = SimDataType.LEGACY_COMPASS;
+		brick.getPortName()[TOUCHED] = "compass";
+		brick.getPortType()[UNTOUCHED] = SimDataType.LEGACY_ULTRASONIC;
+		brick.getPortName()[UNTOUCHED] = "sonar";
+		brick.fixupUnMarshaling();
+		((LegacyCompassSimData)brick.findSimDataName("compass")).setHeading(271);
+		((LegacyUltrasonicSimData)brick.findSimDataName("sonar")).setDistance(42);
+
+		// A full write packet: command header, then the module's 208 byte image
+		byte[] packet = new byte[208];
+		packet[0] = 0x55;
+		packet[1] = (byte)0xAA;
+		packet[4] = (byte)200;
+		setUpRead(packet, TOUCHED, 0x41, 5);
+		setUpRead(packet, UNTOUCHED, 0x42, 1);
+		packet[window(TOUCHED) + LegacyPortHandler.OFFSET_FLAG] = LegacyPortHandler.ACTION_FLAG;
+
+		brick.handleIncomingPacket(ByteBuffer.wrap(packet), packet.length, false);
+
+		ByteBuffer image = brick.mCurrentStateBuffer.front();
+		int touched = window(TOUCHED);
+		check(image.get(touched + LegacyPortHandler.OFFSET_MODE) == packet[touched + LegacyPortHandler.OFFSET_MODE],
+				"the touched port's window is copied into the image");
+		int heading = (image.get(touched + LegacyPortHandler.OFFSET_DATA + 3) & 0xff)
+				| (image.get(touched + LegacyPortHandler.OFFSET_DATA + 4) & 0xff) << 8;
+		check(heading == 271, "the touched port's sensor answers the read, got heading " + heading);
+
+		int untouched = window(UNTOUCHED);
+		for (int i=0;i<LegacyPortHandler.PORT_SIZE;i++) {
+			check(image.get(untouched + i) == 0, "the untouched port's window is left alone, byte " + i + " changed");
+		}
+
+		System.out.println("LegacyPortDispatchTest passed");
+	}
+
+	static int window(int port) {
+		return LegacyPortHandler.PORT_BASE + LegacyPortHandler.PORT_SIZE * port;
+	}
+
+	static void setUpRead(byte[] packet, int port, int register, int length) {
+		int p = window(port);
+		packet[p + LegacyPortHandler.OFFSET_MODE] = (byte)(LegacyPortHandler.MODE_I2C | LegacyPortHandler.MODE_READ);
+		packet[p + LegacyPortHandler.OFFSET_I2C_ADDRESS] = 0x02;
+		packet[p + LegacyPortHandler.OFFSET_REGISTER] = (byte)register;
+		packet[p + LegacyPortHandler.OFFSET_LENGTH] = (byte)length;
+	}
+
+	static void check(boolean condition, String what) {
+		if (!condition) throw new AssertionError(what);
+	}
+}